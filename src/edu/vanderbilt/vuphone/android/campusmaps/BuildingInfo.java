@@ -18,27 +18,21 @@
 
 package edu.vanderbilt.vuphone.android.campusmaps;
 
-import java.net.URL;
-
 import android.app.Activity;
-import android.graphics.drawable.BitmapDrawable;
+import android.graphics.Bitmap;
 import android.os.Bundle;
 import android.widget.ImageView;
 import android.widget.TextView;
+import edu.vanderbilt.vuphone.android.campusmaps.storage.AsyncDBWrapper;
 import edu.vanderbilt.vuphone.android.campusmaps.storage.Building;
-import edu.vanderbilt.vuphone.android.campusmaps.storage.DBAdapter;
+import edu.vanderbilt.vuphone.android.campusmaps.tools.ImageLoader;
 
 public class BuildingInfo extends Activity {
 
-	private DBAdapter dbAdapter_;
-
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
 
-		if (dbAdapter_ == null)
-			dbAdapter_ = new DBAdapter(this);
-
 		setContentView(R.layout.buildinginfo);
 
 		Bundle extras = getIntent().getExtras();
@@ -46,35 +40,42 @@ public class BuildingInfo extends Activity {
 		if (extras == null || (id = extras.getLong("building_id")) < 0)
 			return;
 
-		Building b = dbAdapter_.fetchBuilding(id);
-		if (b == null)
-			finish();
+		// Read off the UI thread, shown once it arrives
+		AsyncDBWrapper.get(id, new AsyncDBWrapper.Callback() {
+			public void onBuildingLoaded(long rowID, Building b) {
+				if (isFinishing())
+					return;
+				if (b == null)
+					finish();
+				else
+					show(b);
+			}
+		});
+	}
 
+	private void show(Building b) {
+		long id = b.getID();
 		TextView tv = (TextView) findViewById(R.id.buildingName);
 		tv.setText(b.getName());
 
 		String img = null;
 		if ((img = b.getImageURL()) != null) {
-			ImageView iv = (ImageView) findViewById(R.id.buildingImage);
-
-			BitmapDrawable bm = null;
-
-			try {
-
-				bm = new BitmapDrawable(new URL(img).openStream());
-
-				if (bm == null)
-					throw new Exception("BitmapDrawable sucks...");
-
-				iv.setImageDrawable(bm);
-			} catch (Exception e) {
-				Main.trace("Couldn't download image: " + e.getMessage());
-			}
+			final ImageView iv = (ImageView) findViewById(R.id.buildingImage);
+
+			// Decode no larger than the screen needs
+			int width = getWindowManager().getDefaultDisplay().getWidth();
+			ImageLoader.getInstance(this).load(id, img, width,
+					width * 3 / 4,
+					new ImageLoader.Callback() {
+						public void onImageLoaded(String url, Bitmap bmp) {
+							if (bmp != null)
+								iv.setImageBitmap(bmp);
+						}
+					});
 		}
 
 		TextView tv2 = (TextView) findViewById(R.id.buildingDesc);
 		tv2.setText(b.getDescription());
-
 	}
 
 }
@@ -0,0 +1,238 @@
+/**
+ * Android Campus Maps
+ *  http://code.google.com/p/vuphone/
+ *
+ * Copyright 2009 VUPhone Team
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package edu.vanderbilt.vuphone.android.campusmaps;
+
+import java.util.Random;
+
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Point;
+import android.os.SystemClock;
+import android.view.MotionEvent;
+
+import com.google.android.maps.GeoPoint;
+import com.google.android.maps.MapView;
+import com.google.android.maps.Overlay;
+import com.google.android.maps.Projection;
+
+import edu.vanderbilt.vuphone.android.campusmaps.storage.Building;
+
+/**
+ * A single overlay that draws every dropped pin. Pins are stored in parallel
+ * arrays; each frame only the pins inside the visible map area are
+ * projected and drawn, and a tap is tested once against the pins drawn in
+ * the last frame instead of every pin being its own Overlay.
+ */
+public class BuildingLayer extends Overlay {
+
+	/** Marks a pin that is not attached to a building */
+	public static final long NO_BUILDING = -1;
+
+	// Pins are drawn this many pixels above their location, like MapMarker
+	private static final int PIN_OFFSET_Y = 50;
+
+	// Two taps on the same pin within this many ms open its info
+	private static final long DOUBLE_TAP_TIME = 1500;
+
+	private static final int MARKERS[] = { R.drawable.marker_yellow,
+			R.drawable.marker_blue, R.drawable.marker_red,
+			R.drawable.marker_black };
+
+	// Pin data, stored in microdegrees
+	private int[] lats_ = new int[16];
+	private int[] lons_ = new int[16];
+	private long[] buildings_ = new long[16];
+	private int[] images_ = new int[16];
+	// Kept so projecting a pin does not allocate a GeoPoint every frame
+	private GeoPoint[] points_ = new GeoPoint[16];
+	private int count_ = 0;
+
+	// Pins drawn in the last frame with their screen positions, in draw
+	// order
+	private int[] visible_ = new int[16];
+	private int[] screenX_ = new int[16];
+	private int[] screenY_ = new int[16];
+	private int visibleCount_ = 0;
+
+	private final Point point_ = new Point();
+	private final Random random_ = new Random();
+
+	private int lastTapped_ = -1;
+	private long lastTap_ = 0;
+
+	public BuildingLayer(MapView view) {
+		view.getOverlays().add(this);
+	}
+
+	/**
+	 * Adds a pin with a random color
+	 *
+	 * @return the pin's index
+	 */
+	public int addPin(GeoPoint p) {
+		return addPin(p.getLatitudeE6(), p.getLongitudeE6(), NO_BUILDING);
+	}
+
+	/**
+	 * Adds a pin for a building, double tapping it opens BuildingInfo
+	 *
+	 * @return the pin's index
+	 */
+	public int addPin(Building b) {
+		return addPin(b.getLat_(), b.getLong_(), b.getID());
+	}
+
+	private int addPin(int lat, int lon, long building) {
+		if (count_ == lats_.length) {
+			int capacity = count_ * 2;
+			lats_ = grow(lats_, capacity);
+			lons_ = grow(lons_, capacity);
+			images_ = grow(images_, capacity);
+			long[] grown = new long[capacity];
+			System.arraycopy(buildings_, 0, grown, 0, count_);
+			buildings_ = grown;
+			GeoPoint[] grownPoints = new GeoPoint[capacity];
+			System.arraycopy(points_, 0, grownPoints, 0, count_);
+			points_ = grownPoints;
+			visible_ = new int[capacity];
+			screenX_ = new int[capacity];
+			screenY_ = new int[capacity];
+			visibleCount_ = 0;
+		}
+		lats_[count_] = lat;
+		lons_[count_] = lon;
+		buildings_[count_] = building;
+		images_[count_] = MARKERS[random_.nextInt(MARKERS.length)];
+		points_[count_] = new GeoPoint(lat, lon);
+		return count_++;
+	}
+
+	/**
+	 * Removes every pin
+	 */
+	public void clear() {
+		for (int i = 0; i < count_; i++)
+			points_[i] = null;
+		count_ = 0;
+		visibleCount_ = 0;
+		lastTapped_ = -1;
+	}
+
+	public int size() {
+		return count_;
+	}
+
+	@Override
+	public boolean draw(Canvas canvas, MapView mapView, boolean shadow,
+			long when) {
+		if (shadow || count_ == 0)
+			return false;
+
+		// Visible area in microdegrees, padded so pins just outside the
+		// edge whose image reaches into the screen are still drawn
+		GeoPoint center = mapView.getMapCenter();
+		int halfLat = mapView.getLatitudeSpan() * 3 / 4;
+		int halfLon = mapView.getLongitudeSpan() * 3 / 4;
+		int minLat = center.getLatitudeE6() - halfLat;
+		int maxLat = center.getLatitudeE6() + halfLat;
+		int minLon = center.getLongitudeE6() - halfLon;
+		int maxLon = center.getLongitudeE6() + halfLon;
+
+		Projection projection = mapView.getProjection();
+		MarkerCache markers = MarkerCache.getInstance();
+		int width = canvas.getWidth();
+		int height = canvas.getHeight();
+
+		visibleCount_ = 0;
+		for (int i = 0; i < count_; i++) {
+			if (lats_[i] < minLat || lats_[i] > maxLat || lons_[i] < minLon
+					|| lons_[i] > maxLon)
+				continue;
+
+			projection.toPixels(points_[i], point_);
+			Bitmap bmp = markers.get(Main.resources_, images_[i]);
+			// A marker that failed to decode is not drawn or tappable
+			if (bmp == null)
+				continue;
+			int x = point_.x;
+			int y = point_.y - PIN_OFFSET_Y;
+			if (x + bmp.getWidth() < 0 || x > width
+					|| y + bmp.getHeight() < 0 || y > height)
+				continue;
+
+			canvas.drawBitmap(bmp, x, y, null);
+			visible_[visibleCount_] = i;
+			screenX_[visibleCount_] = x;
+			screenY_[visibleCount_] = y;
+			visibleCount_++;
+		}
+		return false;
+	}
+
+	@Override
+	public boolean onTouchEvent(MotionEvent event, MapView mapView) {
+		if (event.getAction() != MotionEvent.ACTION_DOWN)
+			return false;
+
+		int pin = hitTest((int) event.getX(), (int) event.getY());
+		if (pin < 0)
+			return false;
+
+		long now = SystemClock.uptimeMillis();
+		if (pin == lastTapped_ && (now - lastTap_) < DOUBLE_TAP_TIME) {
+			lastTapped_ = -1;
+			onDoubleTap(pin);
+			return true;
+		}
+		lastTapped_ = pin;
+		lastTap_ = now;
+		return false;
+	}
+
+	/**
+	 * @return the topmost pin drawn under a screen position, or -1
+	 */
+	private int hitTest(int x, int y) {
+		MarkerCache markers = MarkerCache.getInstance();
+		// Later pins are drawn on top, so test them first
+		for (int v = visibleCount_ - 1; v >= 0; v--) {
+			int dx = x - screenX_[v];
+			int dy = y - screenY_[v];
+			if (dx < 0 || dy < 0)
+				continue;
+			Bitmap bmp = markers.get(Main.resources_, images_[visible_[v]]);
+			if (bmp != null && dx < bmp.getWidth() && dy < bmp.getHeight())
+				return visible_[v];
+		}
+		return -1;
+	}
+
+	private void onDoubleTap(int pin) {
+		if (buildings_[pin] == NO_BUILDING)
+			return;
+
+		Intent i = new Intent(Main.context_, BuildingInfo.class);
+		i.putExtra("building_id", buildings_[pin]);
+		Main.getInstance().startActivity(i);
+	}
+
+	private static int[] grow(int[] a, int capacity) {
+		int[] grown = new int[capacity];
+		System.arraycopy(a, 0, grown, 0, a.length);
+		return grown;
+	}
+}
@@ -18,45 +18,40 @@
 
 package edu.vanderbilt.vuphone.android.campusmaps;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Map;
-import java.util.Properties;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.NodeList;
+import java.util.concurrent.Callable;
 
 import android.app.ListActivity;
-import android.database.sqlite.SQLiteCursor;
+import android.database.Cursor;
 import android.os.Bundle;
 import android.text.Editable;
 import android.text.TextWatcher;
-import android.util.Log;
 import android.view.View;
-import android.widget.ArrayAdapter;
 import android.widget.EditText;
 import android.widget.ListView;
 import android.widget.SimpleCursorAdapter;
 import android.widget.Toast;
 
-import com.google.android.maps.GeoPoint;
-
+import edu.vanderbilt.vuphone.android.campusmaps.storage.AsyncDBWrapper;
 import edu.vanderbilt.vuphone.android.campusmaps.storage.Building;
+import edu.vanderbilt.vuphone.android.campusmaps.storage.BuildingPack;
+import edu.vanderbilt.vuphone.android.campusmaps.storage.BuildingSearchIndex;
+import edu.vanderbilt.vuphone.android.campusmaps.storage.BuildingSync;
 import edu.vanderbilt.vuphone.android.campusmaps.storage.DBAdapter;
-import edu.vanderbilt.vuphone.android.campusmaps.tools.Tools;
-import edu.vanderbilt.vuphone.android.campusmaps.tools.XMLTools;
+import edu.vanderbilt.vuphone.android.campusmaps.storage.DBWrapper;
+import edu.vanderbilt.vuphone.android.campusmaps.tools.BuildingXMLParser;
 
 public class BuildingList extends ListActivity {
 
 	private EditText filterText = null;
 	SimpleCursorAdapter simpleCursorAdapter = null;
-	ArrayAdapter<Building> dataAdapter = null;
-	private static Map<Long, Building> buildings_ = null;
 	private DBAdapter dbAdapter_;
+	// Built on the database thread, dropped on the UI thread after a sync
+	private static volatile BuildingSearchIndex searchIndex_ = null;
+	private static BuildingSync sync_ = null;
+	private SearchPipeline search_ = null;
+
+	/** ms to wait for more keystrokes before filtering */
+	private static final long SEARCH_DELAY = 150;
 
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
@@ -68,21 +63,60 @@ public class BuildingList extends ListActivity {
 		filterText.addTextChangedListener(filterTextWatcher);
 
 		if (dbAdapter_ == null)
-			dbAdapter_ = new DBAdapter(this);
-
-		populateBuildings();
+			dbAdapter_ = DBAdapter.getInstance(this);
+
+		// Import and index on the database thread, the list fills in once
+		// the index is ready
+		AsyncDBWrapper.submit(new Callable<BuildingSearchIndex>() {
+			public BuildingSearchIndex call() {
+				populateBuildings();
+				BuildingSearchIndex index = searchIndex_;
+				if (index == null)
+					searchIndex_ = index = BuildingSearchIndex
+							.build(dbAdapter_);
+				return index;
+			}
+		}, new AsyncDBWrapper.Listener<BuildingSearchIndex>() {
+			public void onResult(BuildingSearchIndex index) {
+				if (index != null && !isFinishing())
+					showIndex(index);
+			}
+		});
+	}
 
+	// Runs on the UI thread once the index has been built
+	private void showIndex(final BuildingSearchIndex index) {
 		// Variables to map from db column names to cell names in display
 		String[] from = new String[] { DBAdapter.COLUMN_NAME,
 				DBAdapter.COLUMN_ID };
 		int[] to = new int[] { R.list_view.buildingName, R.list_view.buildingID };
 
-		SimpleCursorAdapter sca = new SimpleCursorAdapter(
-				getApplicationContext(), R.layout.building_list_item,
-				dbAdapter_.fetchAllBuildingsSortedCursor(), from, to);
+		simpleCursorAdapter = new SimpleCursorAdapter(getApplicationContext(),
+				R.layout.building_list_item, index.toCursor(index.search("")),
+				from, to);
 
-		setListAdapter(sca);
+		setListAdapter(simpleCursorAdapter);
 
+		search_ = new SearchPipeline(index, new SearchPipeline.Listener() {
+			public void onResults(String query, int[] results) {
+				// Swap the results into the existing adapter
+				simpleCursorAdapter.changeCursor(index.toCursor(results));
+			}
+		}, SEARCH_DELAY);
+
+		// Catch up with anything typed while the index was loading
+		if (filterText.length() > 0)
+			search_.submit(filterText.getText().toString());
+
+		if (isNewListAvailable()) {
+			getSync().start(new BuildingSync.Listener() {
+				public void onSyncFinished(int changed) {
+					// Rebuilt the next time the list is opened
+					if (changed > 0)
+						searchIndex_ = null;
+				}
+			});
+		}
 	}
 
 	@Override
@@ -90,19 +124,22 @@ public class BuildingList extends ListActivity {
 		super.onListItemClick(l, v, position, id);
 
 		// mod this
-		SQLiteCursor sqlc = (SQLiteCursor) getListView().getItemAtPosition(
-				position);
+		Cursor sqlc = (Cursor) getListView().getItemAtPosition(position);
 		long buildingID = sqlc
 				.getLong(sqlc.getColumnIndex(DBAdapter.COLUMN_ID));
-		Building bc = dbAdapter_.fetchBuilding(buildingID);
-		Main.trace(bc.getName() + " selected");
-
-		// TODO open a menu that asks what they want to do
+		AsyncDBWrapper.get(buildingID, new AsyncDBWrapper.Callback() {
+			public void onBuildingLoaded(long rowID, Building bc) {
+				if (bc != null) {
+					Main.trace(bc.getName() + " selected");
 
-		// Drop a pin
-		Main.getInstance().drop_pin(bc);
+					// TODO open a menu that asks what they want to do
 
-		super.finish();
+					// Drop a pin
+					Main.getInstance().drop_pin(bc);
+				}
+				finish();
+			}
+		});
 	}
 
 	private TextWatcher filterTextWatcher = new TextWatcher() {
@@ -116,16 +153,8 @@ public class BuildingList extends ListActivity {
 
 		public void onTextChanged(CharSequence s, int start, int before,
 				int count) {
-			// Variables to map from db column names to cell names in display
-			String[] from = new String[] { DBAdapter.COLUMN_NAME,
-					DBAdapter.COLUMN_ID };
-			int[] to = new int[] { R.list_view.buildingName, R.list_view.buildingID };
-
-			SimpleCursorAdapter sca = new SimpleCursorAdapter(
-					getApplicationContext(), R.layout.building_list_item,
-					dbAdapter_.fetchSomeBuildingsSortedCursor(s.toString()), from, to);
-
-			setListAdapter(sca);
+			if (search_ != null)
+				search_.submit(s.toString());
 		}
 
 	};
@@ -134,79 +163,57 @@ public class BuildingList extends ListActivity {
 	protected void onDestroy() {
 		super.onDestroy();
 		filterText.removeTextChangedListener(filterTextWatcher);
+		if (search_ == null)
+			return;
+		search_.shutdown();
+		Main.trace("Search latency: avg " + search_.getAverageLatency()
+				+ "ms, max " + search_.getMaxLatency() + "ms over "
+				+ search_.getQueryCount() + " queries");
 	}
 
 	/**
-	 * Returns a list of building names
-	 * 
-	 * @return
-	 */
-	public List<String> getBuildingNames() {
-		List<String> list = new ArrayList<String>();
-
-		Iterator<Building> iter = buildings_.values().iterator();
-		while (iter.hasNext()) {
-			list.add(iter.next().getName());
-		}
-
-		return list;
-	}
-
-	/**
-	 * Provides access to the database of buildings
-	 * 
-	 * @return
-	 */
-	public static Map<Long, Building> getBuildingList() {
-		if (buildings_ == null)
-			buildings_ = new HashMap<Long, Building>();
-
-		return buildings_;
-	}
-
-	/**
-	 * Parses in the building data to populate BuildingList
+	 * Imports the building snapshot to populate BuildingList if the table is
+	 * empty. buildings.bin is the only copy of the building list shipped in
+	 * the APK, later changes come from BuildingSync. Runs on the database
+	 * thread.
 	 */
 	public void populateBuildings() {
 
-		if (isNewListAvailable()
-				|| dbAdapter_.fetchAllBuildingIDs().size() == 0) {
-
-			Main.trace("Parsing building list from XML");
+		if (dbAdapter_.isEmpty()) {
+			long start = System.currentTimeMillis();
 
-			InputStream xmlData = null;
-			try {
-				xmlData = getResources().getAssets().open("buildings.xml");
-			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+			final BuildingPack pack = BuildingPack.open(getAssets());
+			if (pack == null) {
+				Main.trace("No building snapshot, the list stays empty");
+				return;
 			}
-
-			loadFromXML(xmlData);
-
-			// Cache the building list
-			updateDataBase();
+			int rows = DBWrapper.createAll(new DBAdapter.BuildingSource() {
+				public boolean read(BuildingXMLParser.Listener out) {
+					for (int i = 0; i < pack.size(); i++)
+						out.onBuilding(pack.get(i));
+					return true;
+				}
+			});
+			searchIndex_ = null;
+
+			Main.trace("Cold start from " + BuildingPack.ASSET + ": " + rows
+					+ " buildings in " + (System.currentTimeMillis() - start)
+					+ "ms");
 		}
-
 	}
 
-	private static boolean isNewListAvailable() {
-		// TODO check server for updated building list
-
-		return false;
+	/**
+	 * @return true if the server feed is due to be checked for changed
+	 *         buildings
+	 */
+	private boolean isNewListAvailable() {
+		return getSync().isDue();
 	}
 
-	private void updateDataBase() {
-		// TODO: Check if building exists in db before committing.
-		Map<Long, Building> buildings = getBuildingList();
-
-		for (Long l : buildings.keySet()) {
-			dbAdapter_.createBuilding(buildings.get(l).getName(), buildings
-					.get(l).getLat_(), buildings.get(l).getLong_(), buildings
-					.get(l).getDescription(), buildings.get(l).getImageURL());
-		}
-
-		Main.trace("Building list database has been updated");
+	private BuildingSync getSync() {
+		if (sync_ == null)
+			sync_ = new BuildingSync(getApplicationContext());
+		return sync_;
 	}
 
 	/**
@@ -215,41 +222,4 @@ public class BuildingList extends ListActivity {
 	public void echo(String s) {
 		Toast.makeText(getBaseContext(), s, Toast.LENGTH_SHORT).show();
 	}
-
-	private static void loadFromXML(InputStream xmlData) {
-		Map<Long, Building> bList = BuildingList.getBuildingList();
-
-		Document doc = XMLTools.parseXML(xmlData);
-
-		if (doc == null)
-			return;
-
-		int i;
-		NodeList list_ = doc.getElementsByTagName("feature");
-		for (i = 0; i < list_.getLength(); i++) {
-			Properties attrib = XMLTools.NodeList2Array(list_.item(i)
-					.getChildNodes());
-
-			if (attrib == null)
-				continue;
-
-			String name = Tools.titleCase(attrib.getProperty("FACILITY_NAME"));
-
-			if (!attrib.containsKey("coordinates"))
-				continue;
-
-			String loc[] = attrib.getProperty("coordinates").split(" ");
-			String latlong[] = loc[0].split(",");
-			GeoPoint gp = Tools.EPSG900913ToGeoPoint(Double
-					.parseDouble(latlong[0]), Double.parseDouble(latlong[1]));
-			String url = "http://www.vanderbilt.edu/map/"
-					+ attrib.getProperty("FACILITY_URL").toLowerCase();
-
-			Building b = new Building(i, gp.getLatitudeE6(), gp
-					.getLongitudeE6(), name, attrib
-					.getProperty("FACILITY_REMARKS"), url);
-
-			bList.put(new Long(i), b);
-		}
-	}
 }
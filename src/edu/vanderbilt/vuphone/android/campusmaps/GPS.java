@@ -72,6 +72,16 @@ public class GPS implements LocationListener {
 
 	}
 
+	/**
+	 * @return the last known position, or null if there has been no fix
+	 */
+	public GeoPoint getLocation() {
+		if (loc_ == null)
+			return null;
+		return new GeoPoint((int) (loc_.getLatitude() * 1E6), (int) (loc_
+				.getLongitude() * 1E6));
+	}
+
 	/**
 	 * Called by the GPS service to inform us of the current position
 	 */
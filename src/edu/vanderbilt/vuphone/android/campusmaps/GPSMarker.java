@@ -22,7 +22,6 @@ import java.util.Calendar;
 import java.util.List;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Point;
 import android.util.Log;
@@ -94,7 +93,7 @@ public class GPSMarker extends com.google.android.maps.Overlay {
 		mapView.getProjection().toPixels(location_, screenPts);
 
 		// drop a random colored pin
-		Bitmap bmp = BitmapFactory.decodeResource(Main.resources_,
+		Bitmap bmp = MarkerCache.getInstance().get(Main.resources_,
 				R.drawable.blue_dot);
 		canvas.drawBitmap(bmp, screenPts.x, screenPts.y - 10, null);
 		return true;
@@ -18,6 +18,9 @@
 
 package edu.vanderbilt.vuphone.android.campusmaps;
 
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+
 import android.content.Context;
 import android.content.Intent;
 import android.content.res.Resources;
@@ -34,7 +37,13 @@ import com.google.android.maps.MapActivity;
 import com.google.android.maps.MapController;
 import com.google.android.maps.MapView;
 
+import edu.vanderbilt.vuphone.android.campusmaps.storage.AsyncDBWrapper;
 import edu.vanderbilt.vuphone.android.campusmaps.storage.Building;
+import edu.vanderbilt.vuphone.android.campusmaps.storage.DBWrapper;
+import edu.vanderbilt.vuphone.android.campusmaps.storage.DetailCache;
+import edu.vanderbilt.vuphone.android.campusmaps.tools.ImageLoader;
+import edu.vanderbilt.vuphone.android.campusmaps.tools.ImagePack;
+import edu.vanderbilt.vuphone.android.campusmaps.tools.ImagePrefetcher;
 import edu.vanderbilt.vuphone.android.campusmaps.tools.Tools;
 
 public class Main extends MapActivity {
@@ -44,6 +53,8 @@ public class Main extends MapActivity {
 	private static final int MENU_ITEM_BUILDING_LIST = 1;
 	private static final int MENU_ITEM_MAP_MODE_GROUP = 0;
 	private static final int MENU_ITEM_ABOUT = 7;
+	private static final int MENU_ITEM_SAVE_IMAGES = 8;
+	private static final int MENU_ITEM_NEAREST = 9;
 	// private static final int MENU_SETTINGS = 3;
 
 	private static final int SUBMENU_STREET_VIEW = 6;
@@ -54,6 +65,8 @@ public class Main extends MapActivity {
 	private static MapController mc_;
 	private GeoPoint p_;
 	private PathOverlay poLayer_ = null;
+	private BuildingLayer pins_ = null;
+	private ImagePrefetcher prefetcher_ = null;
 	private static Main instance_ = null;
 	public static Context context_ = null;
 	public static Resources resources_ = null;
@@ -77,6 +90,10 @@ public class Main extends MapActivity {
 		if (applicationContext == null)
 			applicationContext = getApplicationContext();
 
+		// Load the building table now, off the UI thread, rather than on
+		// its first use
+		AsyncDBWrapper.preload(null);
+
 		setContentView(R.layout.main);
 		mapView_ = (MapView) findViewById(R.id.mapview);
 		
@@ -86,6 +103,7 @@ public class Main extends MapActivity {
 		mapView_.setBuiltInZoomControls(false);
 
 		poLayer_ = new PathOverlay(mapView_);
+		pins_ = new BuildingLayer(mapView_);
 
 		mc_ = mapView_.getController();
 
@@ -119,6 +137,30 @@ public class Main extends MapActivity {
 		GPS.getInstance().uninitialize(lm);
 	}
 
+	@Override
+	protected void onDestroy() {
+		// Don't keep downloading images for an activity that is gone
+		if (prefetcher_ != null)
+			prefetcher_.cancel();
+		super.onDestroy();
+	}
+
+	@Override
+	public void onLowMemory() {
+		super.onLowMemory();
+		MarkerCache cache = MarkerCache.getInstance();
+		trace("Low memory, dropping marker cache (" + cache.getHitCount()
+				+ " hits, " + cache.getMissCount() + " misses)");
+		cache.onLowMemory();
+		ImageLoader.getInstance(this).onLowMemory();
+		DetailCache details = DBWrapper.getDetailCache();
+		trace("Dropping building details (" + details.getSizeBytes()
+				+ " bytes, " + details.getHitCount() + " hits, "
+				+ details.getMissCount() + " misses, "
+				+ details.getEvictionCount() + " evicted)");
+		DBWrapper.onLowMemory();
+	}
+
 	/**
 	 * Singleton accessor
 	 * 
@@ -152,6 +194,13 @@ public class Main extends MapActivity {
 		menu.add(0, 1, MENU_ITEM_BUILDING_LIST, "List Buildings").setIcon(
 				android.R.drawable.ic_menu_agenda);
 
+		menu.add(Menu.NONE, MENU_ITEM_NEAREST, Menu.NONE, "Nearest Building")
+				.setIcon(android.R.drawable.ic_menu_mylocation);
+
+		menu.add(Menu.NONE, MENU_ITEM_SAVE_IMAGES, Menu.NONE,
+				"Save Images Offline").setIcon(
+				android.R.drawable.ic_menu_save);
+
 		menu.add(Menu.NONE, MENU_ITEM_ABOUT, Menu.NONE, "About").setIcon(
 				getResources().getDrawable(
 						android.R.drawable.ic_menu_info_details));
@@ -219,6 +268,12 @@ public class Main extends MapActivity {
 			Intent about = new Intent(this, About.class);
 			startActivity(about);
 			break;
+		case MENU_ITEM_SAVE_IMAGES:
+			prefetchImages();
+			break;
+		case MENU_ITEM_NEAREST:
+			showNearestBuilding();
+			break;
 		/*
 		 * case (MENU_SETTINGS): echo("Settings"); break;
 		 */
@@ -233,8 +288,7 @@ public class Main extends MapActivity {
 	 *            - location to place marker
 	 */
 	public void drop_pin(GeoPoint p) {
-		MapMarker m = new MapMarker(p);
-		m.drop_pin();
+		pins_.addPin(p);
 		centerMapAt(p);
 	}
 
@@ -246,8 +300,7 @@ public class Main extends MapActivity {
 	 *            - location to place marker
 	 */
 	public void drop_pin(Building b) {
-		MapMarker m = new MapMarker(b);
-		m.drop_pin();
+		pins_.addPin(b);
 		centerMapAt(new GeoPoint(b.getLat_(), b.getLong_()), 18);
 	}
 
@@ -295,6 +348,78 @@ public class Main extends MapActivity {
 		Log.d("mad", s);
 	}
 
+	/**
+	 * Downloads every building's image for offline use, or cancels a
+	 * download already running. Images saved before are skipped.
+	 */
+	public void prefetchImages() {
+		if (prefetcher_ == null)
+			prefetcher_ = new ImagePrefetcher(ImagePack.getInstance(this),
+					new ImagePrefetcher.Listener() {
+						public void onProgress(int done, int total) {
+							if (done % 25 == 0)
+								trace("Saved " + done + " of " + total
+										+ " images");
+						}
+
+						public void onFinished(int saved, int failed) {
+							echo(failed == 0 ? "Images saved for offline use"
+									: failed + " images could not be saved");
+						}
+					});
+
+		if (prefetcher_.isRunning()) {
+			prefetcher_.cancel();
+			echo("Stopped saving images");
+			return;
+		}
+
+		// Read every url in one query on the database thread
+		final ArrayList<String> urls = new ArrayList<String>();
+		AsyncDBWrapper.submit(new Callable<long[]>() {
+			public long[] call() {
+				return DBWrapper.getImageURLs(urls);
+			}
+		}, new AsyncDBWrapper.Listener<long[]>() {
+			public void onResult(long[] buildings) {
+				if (buildings == null || prefetcher_.isRunning())
+					return;
+				if (prefetcher_.start(buildings, urls
+						.toArray(new String[buildings.length])) > 0)
+					echo("Saving building images...");
+			}
+		});
+	}
+
+	/**
+	 * Drops a pin on the building closest to the last GPS fix. The spatial
+	 * index is built, on first use, and searched on the database thread.
+	 */
+	public void showNearestBuilding() {
+		final GeoPoint here = gps_ == null ? null : gps_.getLocation();
+		if (here == null) {
+			echo("Waiting for a GPS fix");
+			return;
+		}
+
+		AsyncDBWrapper.submit(new Callable<Building>() {
+			public Building call() {
+				long[] nearest = DBWrapper.getSpatialIndex().nearest(
+						here.getLatitudeE6(), here.getLongitudeE6(), 1);
+				return nearest.length == 0 ? null : DBWrapper.get(nearest[0]);
+			}
+		}, new AsyncDBWrapper.Listener<Building>() {
+			public void onResult(Building b) {
+				if (b == null) {
+					echo("No buildings to search");
+					return;
+				}
+				drop_pin(b);
+				echo("Nearest building: " + b.getName());
+			}
+		});
+	}
+
 	public void testPathOverlay() {
 
 		
@@ -24,7 +24,6 @@ import java.util.Random;
 
 import android.content.Intent;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Point;
@@ -108,9 +107,9 @@ public class MapMarker extends com.google.android.maps.Overlay {
 		mapView.getProjection().toPixels(p_, screenPts);
 
 		// drop a random colored pin
-		Bitmap bmp = BitmapFactory.decodeResource(Main.resources_,
+		Bitmap bmp = MarkerCache.getInstance().get(Main.resources_,
 				marker_image_);
-		
+
 		canvas.drawBitmap(bmp, screenPts.x, screenPts.y - 50, null);
 
 		return true;
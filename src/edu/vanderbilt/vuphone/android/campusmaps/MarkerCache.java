@@ -0,0 +1,170 @@
+/**
+ * Android Campus Maps
+ *  http://code.google.com/p/vuphone/
+ *
+ * Copyright 2009 VUPhone Team
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package edu.vanderbilt.vuphone.android.campusmaps;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import edu.vanderbilt.vuphone.android.campusmaps.storage.LongIntMap;
+
+/**
+ * Shared cache of decoded marker images so that overlays do not decode a
+ * drawable on every frame. Entries are keyed by resource ID and screen
+ * density, and the least recently used ones are dropped once the cache holds
+ * more than its byte limit.
+ *
+ * get() runs for every pin on every frame, so lookups go through a
+ * LongIntMap into parallel arrays and never allocate. There are only a
+ * handful of marker images, so the least recently used one is found with a
+ * linear scan.
+ */
+public class MarkerCache {
+
+	/** Marker images are small, this holds all of them many times over */
+	private static final int DEFAULT_MAX_BYTES = 512 * 1024;
+
+	private static MarkerCache instance_ = null;
+
+	// Key -> slot, and per slot the image, its key and when it was last used
+	private final LongIntMap slotOf_ = new LongIntMap();
+	private Bitmap[] bitmaps_ = new Bitmap[8];
+	private long[] keys_ = new long[8];
+	private long[] used_ = new long[8];
+	private int count_ = 0;
+	private long clock_ = 0;
+
+	private int maxBytes_;
+	private int bytes_ = 0;
+	private int hits_ = 0;
+	private int misses_ = 0;
+
+	protected MarkerCache(int maxBytes) {
+		maxBytes_ = maxBytes;
+	}
+
+	/**
+	 * Singleton accessor
+	 */
+	public static synchronized MarkerCache getInstance() {
+		if (instance_ == null)
+			instance_ = new MarkerCache(DEFAULT_MAX_BYTES);
+		return instance_;
+	}
+
+	/**
+	 * Returns the decoded image for a drawable, decoding it only the first
+	 * time
+	 *
+	 * @param res
+	 *            resources to decode from
+	 * @param resId
+	 *            drawable resource ID
+	 */
+	public synchronized Bitmap get(Resources res, int resId) {
+		long key = key(resId, res.getDisplayMetrics().density);
+		int slot = slotOf_.get(key);
+		if (slot >= 0) {
+			hits_++;
+			used_[slot] = ++clock_;
+			return bitmaps_[slot];
+		}
+
+		misses_++;
+		Bitmap bmp = BitmapFactory.decodeResource(res, resId);
+		if (bmp == null)
+			return null;
+
+		if (count_ == bitmaps_.length) {
+			Bitmap[] grown = new Bitmap[count_ * 2];
+			System.arraycopy(bitmaps_, 0, grown, 0, count_);
+			bitmaps_ = grown;
+			keys_ = grow(keys_, count_ * 2);
+			used_ = grow(used_, count_ * 2);
+		}
+		slot = count_++;
+		bitmaps_[slot] = bmp;
+		keys_[slot] = key;
+		used_[slot] = ++clock_;
+		slotOf_.put(key, slot);
+		bytes_ += sizeOf(bmp);
+		trimTo(maxBytes_);
+		return bmp;
+	}
+
+	/**
+	 * Drops cached images until at most maxBytes are held. Images still
+	 * drawn by an overlay are decoded again on their next draw.
+	 */
+	public synchronized void trimTo(int maxBytes) {
+		while (bytes_ > maxBytes && count_ > 0) {
+			int oldest = 0;
+			for (int i = 1; i < count_; i++)
+				if (used_[i] < used_[oldest])
+					oldest = i;
+			remove(oldest);
+		}
+	}
+
+	/**
+	 * Called when the system is low on memory
+	 */
+	public void onLowMemory() {
+		trimTo(0);
+	}
+
+	public synchronized int getHitCount() {
+		return hits_;
+	}
+
+	public synchronized int getMissCount() {
+		return misses_;
+	}
+
+	public synchronized int getSizeBytes() {
+		return bytes_;
+	}
+
+	// Called with the cache locked, moves the last entry into the freed slot
+	private void remove(int slot) {
+		bytes_ -= sizeOf(bitmaps_[slot]);
+		slotOf_.remove(keys_[slot]);
+
+		int last = --count_;
+		if (slot != last) {
+			bitmaps_[slot] = bitmaps_[last];
+			keys_[slot] = keys_[last];
+			used_[slot] = used_[last];
+			slotOf_.put(keys_[slot], slot);
+		}
+		bitmaps_[last] = null;
+	}
+
+	private static long key(int resId, float density) {
+		return ((long) Float.floatToIntBits(density) << 32)
+				| (resId & 0xffffffffL);
+	}
+
+	private static long[] grow(long[] a, int capacity) {
+		long[] grown = new long[capacity];
+		System.arraycopy(a, 0, grown, 0, a.length);
+		return grown;
+	}
+
+	private static int sizeOf(Bitmap bmp) {
+		return bmp.getRowBytes() * bmp.getHeight();
+	}
+}
@@ -20,8 +20,6 @@ package edu.vanderbilt.vuphone.android.campusmaps;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map.Entry;
 
 import android.graphics.Canvas;
 import android.graphics.Paint;
@@ -32,32 +30,217 @@ import android.util.Log;
 import com.google.android.maps.GeoPoint;
 import com.google.android.maps.MapView;
 import com.google.android.maps.Overlay;
+import com.google.android.maps.Projection;
 
 /**
  * Add this Overlay to a MapView to have paths you add to this class drawn on
  * the map.
  * 
- * Paths are kept internally in a HashMap as an ArrayList of GeoPoints like
- * this:
+ * Each path has a unique int ID number so you can select a path and add
+ * points to it later. You can also remove paths by ID.
  * 
- * HashMap { {Int ID, List ( geopoint, geopoint, geopoint)} {Int ID, List (
- * geopoint, geopoint, geopoint)} {Int ID, List ( geopoint, geopoint, geopoint)}
- * }
+ * Vertices are kept in packed int arrays (latitude, longitude pairs in
+ * microdegrees) and packed float arrays of Mercator units relative to an
+ * anchor point. When the zoom level changes every path is rebuilt once as a
+ * screen path; while panning only the anchor is projected and the canvas is
+ * translated, so a steady frame does no projection work and no allocation.
  * 
- * Each path in the HashMap has a unique int ID number so you can select a path
- * and add points to it later. You can also remove paths by ID.
+ * Paths are simplified for the current zoom level. Each vertex gets a
+ * Douglas-Peucker significance (the largest tolerance at which it would be
+ * kept) once, and a screen path only keeps the vertices whose significance
+ * is above TOLERANCE_PX at the current scale.
+ * 
+ * Each path keeps a bounding box in microdegrees, and paths whose box is
+ * outside the visible part of the map are skipped.
  */
 public class PathOverlay extends Overlay {
 
 	// Turn LogCat output on or off
 	final boolean _DEBUGON_ = false;
 
+	// Mercator units per radian, keeps campus sized paths well within float
+	// precision
+	private static final double UNIT = 1E6;
+
+	// Longitude offset of the point used to measure the map's scale
+	private static final int SCALE_REF_OFFSET = 45000000;
+
+	// Vertices that move a path less than this many pixels are not drawn
+	private static final float TOLERANCE_PX = 0.75f;
+
+	/**
+	 * A single path and its cached geometry
+	 */
+	private static class PathData {
+		int[] points_ = new int[16];
+		// Mercator units relative to the anchor
+		float[] xy_ = new float[16];
+		// Douglas-Peucker significance of each vertex, in Mercator units
+		float[] sig_ = new float[8];
+		boolean sigValid_ = false;
+		int size_ = 0;
+		// Bounding box in microdegrees
+		int minLat_ = Integer.MAX_VALUE;
+		int maxLat_ = Integer.MIN_VALUE;
+		int minLon_ = Integer.MAX_VALUE;
+		int maxLon_ = Integer.MIN_VALUE;
+		// Simplified and scaled to screen pixels for the cached zoom level
+		final Path screen_ = new Path();
+		boolean screenValid_ = false;
+		int kept_ = 0;
+
+		void add(int lat, int lon, float x, float y) {
+			if (size_ * 2 == points_.length) {
+				points_ = grow(points_, points_.length * 2);
+				xy_ = grow(xy_, xy_.length * 2);
+				sig_ = grow(sig_, sig_.length * 2);
+			}
+			points_[size_ * 2] = lat;
+			points_[size_ * 2 + 1] = lon;
+			xy_[size_ * 2] = x;
+			xy_[size_ * 2 + 1] = y;
+			size_++;
+			if (lat < minLat_)
+				minLat_ = lat;
+			if (lat > maxLat_)
+				maxLat_ = lat;
+			if (lon < minLon_)
+				minLon_ = lon;
+			if (lon > maxLon_)
+				maxLon_ = lon;
+			sigValid_ = false;
+			screenValid_ = false;
+		}
+
+		boolean intersects(int minLat, int minLon, int maxLat, int maxLon) {
+			return minLat_ <= maxLat && maxLat_ >= minLat && minLon_ <= maxLon
+					&& maxLon_ >= minLon;
+		}
+
+		/**
+		 * Runs Douglas-Peucker once over the whole path, recording for each
+		 * vertex the distance at which it was chosen. A vertex never gets a
+		 * larger significance than the segment it split, so filtering by any
+		 * tolerance gives the same result as running Douglas-Peucker with
+		 * that tolerance.
+		 */
+		void computeSignificance() {
+			sig_[0] = Float.MAX_VALUE;
+			sig_[size_ - 1] = Float.MAX_VALUE;
+			for (int i = 1; i < size_ - 1; i++)
+				sig_[i] = 0;
+
+			if (size_ > 2) {
+				// Explicit stack of (first, last) segments
+				int[] stack = new int[64];
+				float[] limit = new float[32];
+				int top = 0;
+				stack[0] = 0;
+				stack[1] = size_ - 1;
+				limit[0] = Float.MAX_VALUE;
+				top = 1;
+				while (top > 0) {
+					top--;
+					int first = stack[top * 2];
+					int last = stack[top * 2 + 1];
+					float parent = limit[top];
+					if (last - first < 2)
+						continue;
+
+					int worst = -1;
+					float worstDist = -1;
+					for (int i = first + 1; i < last; i++) {
+						float d = distance(i, first, last);
+						if (d > worstDist) {
+							worstDist = d;
+							worst = i;
+						}
+					}
+					float sig = Math.min(worstDist, parent);
+					sig_[worst] = sig;
+
+					if (top + 2 > limit.length) {
+						stack = grow(stack, stack.length * 2);
+						limit = grow(limit, limit.length * 2);
+					}
+					stack[top * 2] = first;
+					stack[top * 2 + 1] = worst;
+					limit[top++] = sig;
+					stack[top * 2] = worst;
+					stack[top * 2 + 1] = last;
+					limit[top++] = sig;
+				}
+			}
+			sigValid_ = true;
+		}
+
+		// Distance from vertex i to the segment between vertices a and b
+		private float distance(int i, int a, int b) {
+			float ax = xy_[a * 2], ay = xy_[a * 2 + 1];
+			float dx = xy_[b * 2] - ax, dy = xy_[b * 2 + 1] - ay;
+			float px = xy_[i * 2] - ax, py = xy_[i * 2 + 1] - ay;
+			float len2 = dx * dx + dy * dy;
+			float t = len2 == 0 ? 0 : (px * dx + py * dy) / len2;
+			if (t < 0)
+				t = 0;
+			else if (t > 1)
+				t = 1;
+			float ex = px - t * dx, ey = py - t * dy;
+			return (float) Math.sqrt(ex * ex + ey * ey);
+		}
+
+		/**
+		 * Rebuilds screen_ in pixels, dropping vertices below tolerance
+		 */
+		void rebuildScreen(float k, float tolerance) {
+			if (!sigValid_)
+				computeSignificance();
+			screen_.rewind();
+			int kept = 0;
+			for (int i = 0; i < size_; i++) {
+				if (sig_[i] < tolerance)
+					continue;
+				float x = xy_[i * 2] * k;
+				float y = xy_[i * 2 + 1] * k;
+				if (kept == 0)
+					screen_.moveTo(x, y);
+				else
+					screen_.lineTo(x, y);
+				kept++;
+			}
+			kept_ = kept;
+			screenValid_ = true;
+		}
+	}
+
 	Paint paintPath_ = null;
 	MapView mvMap_ = null;
-	HashMap<Integer, ArrayList<GeoPoint>> hmPathList_ = null;
+	HashMap<Integer, PathData> hmPathList_ = null;
+	// Same paths as hmPathList_, so draw() can loop without an iterator
+	ArrayList<PathData> drawList_ = null;
 	int iCurID_;
 	int iNextID_;
 
+	// Every path is stored relative to this point
+	private GeoPoint anchor_ = null;
+	private GeoPoint scaleRef_ = null;
+	private double anchorX_;
+	private double anchorY_;
+
+	// Screen pixels per Mercator unit at cachedZoom_
+	private int cachedZoom_ = -1;
+	private float scale_ = 1;
+	private final Point point_ = new Point();
+	private final Point refPoint_ = new Point();
+
+	// Frame statistics
+	private int frames_ = 0;
+	private int reprojections_ = 0;
+	private long lastDrawNanos_ = 0;
+	private int lastVertexCount_ = 0;
+	private int lastDrawn_ = 0;
+	private int lastSkipped_ = 0;
+
 	/**
 	 * Constructor.
 	 * 
@@ -69,10 +252,14 @@ public class PathOverlay extends Overlay {
 			Log.d("CampusMaps", "PathOverlay.PathOverlay()");
 		paintPath_ = new Paint();
 		paintPath_.setAntiAlias(true);
+		paintPath_.setStrokeWidth(4);
+		paintPath_.setARGB(100, 113, 105, 252);
+		paintPath_.setStyle(Paint.Style.STROKE);
 		mvMap_ = view;
 		iCurID_ = -1;
 		iNextID_ = 1;
-		hmPathList_ = new HashMap<Integer, ArrayList<GeoPoint>>();
+		hmPathList_ = new HashMap<Integer, PathData>();
+		drawList_ = new ArrayList<PathData>();
 		mvMap_.getOverlays().add(this);
 	}
 
@@ -90,9 +277,10 @@ public class PathOverlay extends Overlay {
 			Log.d("CampusMaps", "PathOverlay.StartNewPath()");
 		iCurID_ = iNextID_;
 		iNextID_++;
-		ArrayList<GeoPoint> lstNewPath = new ArrayList<GeoPoint>();
-		lstNewPath.add(gpNew);
-		hmPathList_.put(iCurID_, lstNewPath);
+		PathData newPath = new PathData();
+		hmPathList_.put(iCurID_, newPath);
+		drawList_.add(newPath);
+		addPoint(newPath, gpNew);
 		return iCurID_;
 	}
 
@@ -138,8 +326,9 @@ public class PathOverlay extends Overlay {
 	public int RemovePath(int ID) {
 		if (_DEBUGON_)
 			Log.d("CampusMaps", "PathOverlay.RemoveID()");
-		if (hmPathList_.containsKey(ID)) {
-			hmPathList_.remove(ID);
+		PathData removed = hmPathList_.remove(ID);
+		if (removed != null) {
+			drawList_.remove(removed);
 			if (iCurID_ == ID) {
 				iCurID_ = -1;
 			}
@@ -160,17 +349,64 @@ public class PathOverlay extends Overlay {
 		if (_DEBUGON_)
 			Log.d("CampusMaps", "PathOverlay.AddPoint()");
 		if (iCurID_ != -1) {
-			hmPathList_.get(iCurID_).add(gpNew);
+			addPoint(hmPathList_.get(iCurID_), gpNew);
 			return iCurID_;
 		} else {
 			return StartNewPath(gpNew);
 		}
 	}
 
+	/** Number of frames drawn */
+	public int getFrameCount() {
+		return frames_;
+	}
+
+	/** Number of frames that had to rescale every path */
+	public int getReprojectionCount() {
+		return reprojections_;
+	}
+
+	/** Time spent in the last draw() call, in nanoseconds */
+	public long getLastDrawNanos() {
+		return lastDrawNanos_;
+	}
+
+	/** Number of vertices drawn in the last frame */
+	public int getLastVertexCount() {
+		return lastVertexCount_;
+	}
+
+	/** Number of paths drawn in the last frame */
+	public int getLastDrawnCount() {
+		return lastDrawn_;
+	}
+
+	/** Number of paths skipped as off screen in the last frame */
+	public int getLastSkippedCount() {
+		return lastSkipped_;
+	}
+
+	private void addPoint(PathData path, GeoPoint p) {
+		int lat = p.getLatitudeE6();
+		int lon = p.getLongitudeE6();
+
+		if (anchor_ == null) {
+			anchor_ = p;
+			anchorX_ = mercatorX(lon);
+			anchorY_ = mercatorY(lat);
+			int refLon = lon > 0 ? lon - SCALE_REF_OFFSET : lon
+					+ SCALE_REF_OFFSET;
+			scaleRef_ = new GeoPoint(lat, refLon);
+		}
+
+		path.add(lat, lon, (float) (mercatorX(lon) - anchorX_),
+				(float) (mercatorY(lat) - anchorY_));
+	}
+
 	/**
-	 * Overloaded draw() Iterates through the HashMap of GeoPoint paths,
-	 * converting each into a drawable Path of screen coordinates and drawing
-	 * the path before moving to the next path. This is called by the MapView.
+	 * Overloaded draw() Draws every path. Screen paths are only rebuilt when
+	 * the zoom level changes or a path gains points. This is called by the
+	 * MapView.
 	 */
 	@Override
 	public boolean draw(Canvas canv, MapView mvMap, boolean b, long when) {
@@ -178,29 +414,80 @@ public class PathOverlay extends Overlay {
 		if (_DEBUGON_)
 			Log.d("CampusMaps", "PathOverlay.draw()");
 
-		// Set up the path painter
-		paintPath_.setStrokeWidth(4);
-		paintPath_.setARGB(100, 113, 105, 252);
-		paintPath_.setStyle(Paint.Style.STROKE);
+		if (b || anchor_ == null)
+			return false;
+
+		long start = System.nanoTime();
+		Projection projection = mvMap.getProjection();
+		projection.toPixels(anchor_, point_);
+
+		int zoom = mvMap.getZoomLevel();
+		if (zoom != cachedZoom_) {
+			// Measure screen pixels per Mercator unit at this zoom level
+			projection.toPixels(scaleRef_, refPoint_);
+			double units = mercatorX(scaleRef_.getLongitudeE6())
+					- mercatorX(anchor_.getLongitudeE6());
+			scale_ = (float) ((refPoint_.x - point_.x) / units);
+			cachedZoom_ = zoom;
+			for (int i = 0; i < drawList_.size(); i++)
+				drawList_.get(i).screenValid_ = false;
+			reprojections_++;
+		}
+
+		// Visible area in microdegrees, with a small margin for the stroke
+		GeoPoint center = mvMap.getMapCenter();
+		int halfLat = mvMap.getLatitudeSpan() * 9 / 16;
+		int halfLon = mvMap.getLongitudeSpan() * 9 / 16;
+		int minLat = center.getLatitudeE6() - halfLat;
+		int maxLat = center.getLatitudeE6() + halfLat;
+		int minLon = center.getLongitudeE6() - halfLon;
+		int maxLon = center.getLongitudeE6() + halfLon;
 
 		// Drawing loop
-		Iterator<Entry<Integer, ArrayList<GeoPoint>>> itMap = hmPathList_
-				.entrySet().iterator();
-		while (itMap.hasNext()) {
-			Path curPath = new Path();
-			Entry<Integer, ArrayList<GeoPoint>> curPair = itMap.next();
-			Iterator<GeoPoint> itCurGeoPoint = curPair.getValue().iterator();
-			Point curPoint = new Point();
-			if (itCurGeoPoint.hasNext()) {
-				mvMap.getProjection().toPixels(itCurGeoPoint.next(), curPoint);
-				curPath.moveTo(curPoint.x, curPoint.y);
-			}
-			while (itCurGeoPoint.hasNext()) {
-				mvMap.getProjection().toPixels(itCurGeoPoint.next(), curPoint);
-				curPath.lineTo(curPoint.x, curPoint.y);
-			}
-			canv.drawPath(curPath, paintPath_);
+		float tolerance = TOLERANCE_PX / Math.abs(scale_);
+		canv.save();
+		canv.translate(point_.x, point_.y);
+		int vertices = 0;
+		int drawn = 0;
+		for (int i = 0; i < drawList_.size(); i++) {
+			PathData path = drawList_.get(i);
+			if (!path.intersects(minLat, minLon, maxLat, maxLon))
+				continue;
+			drawn++;
+			if (!path.screenValid_)
+				path.rebuildScreen(scale_, tolerance);
+			canv.drawPath(path.screen_, paintPath_);
+			vertices += path.kept_;
 		}
-		return true;
+		canv.restore();
+
+		lastVertexCount_ = vertices;
+		lastDrawn_ = drawn;
+		lastSkipped_ = drawList_.size() - drawn;
+		frames_++;
+		lastDrawNanos_ = System.nanoTime() - start;
+		return false;
+	}
+
+	private static int[] grow(int[] a, int length) {
+		int[] grown = new int[length];
+		System.arraycopy(a, 0, grown, 0, a.length);
+		return grown;
+	}
+
+	private static float[] grow(float[] a, int length) {
+		float[] grown = new float[length];
+		System.arraycopy(a, 0, grown, 0, a.length);
+		return grown;
+	}
+
+	private static double mercatorX(int lon) {
+		return Math.toRadians(lon / 1E6) * UNIT;
+	}
+
+	// Screen y grows downward, so north is negative
+	private static double mercatorY(int lat) {
+		double phi = Math.toRadians(lat / 1E6);
+		return -Math.log(Math.tan(Math.PI / 4 + phi / 2)) * UNIT;
 	}
 }
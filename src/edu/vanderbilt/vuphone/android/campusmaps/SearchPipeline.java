@@ -0,0 +1,166 @@
+/**
+ * Android Campus Maps
+ *  http://code.google.com/p/vuphone/
+ *
+ * Copyright 2009 VUPhone Team
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package edu.vanderbilt.vuphone.android.campusmaps;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import edu.vanderbilt.vuphone.android.campusmaps.storage.BuildingSearchIndex;
+
+/**
+ * Runs building searches off the UI thread. Keystrokes arriving within the
+ * delay window are coalesced into one query, a newer query cancels any older
+ * one still waiting, and only the newest results are posted back.
+ *
+ * Must be created and used from the UI thread.
+ */
+public class SearchPipeline {
+
+	/**
+	 * Receives results on the UI thread
+	 */
+	public interface Listener {
+		public void onResults(String query, int[] results);
+	}
+
+	private final BuildingSearchIndex index_;
+	private final Listener listener_;
+	private final long delay_;
+	private final Handler handler_ = new Handler();
+	private final ExecutorService executor_ = Executors
+			.newSingleThreadExecutor();
+
+	// Only touched on the UI thread
+	private String pendingQuery_ = null;
+	private long typedAt_ = 0;
+	private int generation_ = 0;
+	private Future<?> running_ = null;
+
+	// Latency from the last keystroke of a query to its results, in ms
+	private int queries_ = 0;
+	private int superseded_ = 0;
+	private long totalLatency_ = 0;
+	private long maxLatency_ = 0;
+	private long lastLatency_ = 0;
+
+	private final Runnable dispatch_ = new Runnable() {
+		public void run() {
+			dispatch();
+		}
+	};
+
+	/**
+	 * @param index
+	 *            index to search
+	 * @param l
+	 *            gets the results
+	 * @param delay
+	 *            ms to wait for more keystrokes before querying
+	 */
+	public SearchPipeline(BuildingSearchIndex index, Listener l, long delay) {
+		index_ = index;
+		listener_ = l;
+		delay_ = delay;
+	}
+
+	/**
+	 * Called for every change to the search text
+	 */
+	public void submit(String query) {
+		pendingQuery_ = query;
+		typedAt_ = SystemClock.uptimeMillis();
+		handler_.removeCallbacks(dispatch_);
+		handler_.postDelayed(dispatch_, delay_);
+	}
+
+	/**
+	 * Stops the background thread, no results are delivered afterwards
+	 */
+	public void shutdown() {
+		handler_.removeCallbacks(dispatch_);
+		generation_++;
+		executor_.shutdownNow();
+	}
+
+	private void dispatch() {
+		final String query = pendingQuery_;
+		final long typedAt = typedAt_;
+		final int generation = ++generation_;
+
+		// A query that has not started yet is skipped. One already running
+		// still finishes, and deliver() drops and counts its results.
+		if (running_ != null)
+			running_.cancel(false);
+
+		running_ = executor_.submit(new Runnable() {
+			public void run() {
+				final int[] results = index_.search(query);
+				handler_.post(new Runnable() {
+					public void run() {
+						deliver(generation, query, results, typedAt);
+					}
+				});
+			}
+		});
+	}
+
+	private void deliver(int generation, String query, int[] results,
+			long typedAt) {
+		if (generation != generation_) {
+			superseded_++;
+			return;
+		}
+
+		long latency = SystemClock.uptimeMillis() - typedAt;
+		queries_++;
+		totalLatency_ += latency;
+		lastLatency_ = latency;
+		if (latency > maxLatency_)
+			maxLatency_ = latency;
+
+		listener_.onResults(query, results);
+	}
+
+	/** Number of queries whose results were delivered */
+	public int getQueryCount() {
+		return queries_;
+	}
+
+	/**
+	 * Number of queries that finished after a newer one replaced them, so
+	 * their results were dropped. Queries cancelled before they started are
+	 * not counted.
+	 */
+	public int getSupersededCount() {
+		return superseded_;
+	}
+
+	public long getLastLatency() {
+		return lastLatency_;
+	}
+
+	public long getMaxLatency() {
+		return maxLatency_;
+	}
+
+	public long getAverageLatency() {
+		return queries_ == 0 ? 0 : totalLatency_ / queries_;
+	}
+}
@@ -0,0 +1,219 @@
+/**
+ * Android Campus Maps
+ *  http://code.google.com/p/vuphone/
+ *
+ * Copyright 2009 VUPhone Team
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package edu.vanderbilt.vuphone.android.campusmaps.storage;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import edu.vanderbilt.vuphone.android.campusmaps.Main;
+
+/**
+ * Asynchronous access to DBWrapper for the UI thread, which should never
+ * wait on SQLite. Work runs on one dedicated I/O thread, since every query
+ * goes through the same shared connection anyway, and callbacks are posted
+ * back to the UI thread.
+ *
+ * Buildings asked for while a batch is waiting to run are loaded together,
+ * with one IN (...) query for all of those whose details are not cached.
+ */
+public class AsyncDBWrapper {
+
+	public interface Callback {
+		/**
+		 * Called on the UI thread, or straight away on the calling thread
+		 * if the building was cached
+		 *
+		 * @param b
+		 *            the building with its details, or null if there is no
+		 *            such building or it could not be read
+		 */
+		public void onBuildingLoaded(long rowID, Building b);
+	}
+
+	public interface Listener<T> {
+		/**
+		 * Called on the UI thread
+		 *
+		 * @param result
+		 *            what the task returned, or null if it failed
+		 */
+		public void onResult(T result);
+	}
+
+	private static final ExecutorService executor_ = Executors
+			.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "DBWrapper I/O");
+					t.setPriority(Thread.NORM_PRIORITY - 1);
+					return t;
+				}
+			});
+	private static final Handler handler_ = new Handler(Looper
+			.getMainLooper());
+
+	// Guarded by pending_: requests for the next batch, and whether that
+	// batch has been handed to the executor
+	private static final ArrayList<Request> pending_ = new ArrayList<Request>();
+	private static boolean scheduled_ = false;
+
+	/**
+	 * A future completed by a batch instead of by running a task
+	 */
+	private static class Request extends FutureTask<Building> {
+		final long rowID_;
+		final Callback callback_;
+
+		Request(long rowID, Callback callback) {
+			super(new Callable<Building>() {
+				public Building call() {
+					throw new IllegalStateException("completed by a batch");
+				}
+			});
+			rowID_ = rowID;
+			callback_ = callback;
+		}
+
+		void deliver(final Building b) {
+			set(b);
+			if (callback_ == null || isCancelled())
+				return;
+			handler_.post(new Runnable() {
+				public void run() {
+					callback_.onBuildingLoaded(rowID_, b);
+				}
+			});
+		}
+	}
+
+	private static final Runnable batch_ = new Runnable() {
+		public void run() {
+			Request[] requests;
+			synchronized (pending_) {
+				requests = pending_.toArray(new Request[pending_.size()]);
+				pending_.clear();
+				scheduled_ = false;
+			}
+			load(requests);
+		}
+	};
+
+	/**
+	 * Loads a building with its description and url. If they are already
+	 * cached the future is complete and the callback has been called when
+	 * this returns, otherwise both happen once the building is read.
+	 *
+	 * @param callback
+	 *            may be null
+	 * @return the building, or null if there is no such building
+	 */
+	public static Future<Building> get(long rowID, Callback callback) {
+		Building b = DBWrapper.getDetailCache().get(rowID);
+		if (b != null) {
+			Request done = new Request(rowID, null);
+			done.deliver(b);
+			if (callback != null)
+				callback.onBuildingLoaded(rowID, b);
+			return done;
+		}
+
+		Request request = new Request(rowID, callback);
+		synchronized (pending_) {
+			pending_.add(request);
+			if (!scheduled_) {
+				scheduled_ = true;
+				executor_.execute(batch_);
+			}
+		}
+		return request;
+	}
+
+	/**
+	 * Runs any database work on the I/O thread, after the work already
+	 * queued there
+	 *
+	 * @param listener
+	 *            given the result on the UI thread, may be null
+	 */
+	public static <T> Future<T> submit(final Callable<T> task,
+			final Listener<T> listener) {
+		return executor_.submit(new Callable<T>() {
+			public T call() {
+				T result = null;
+				try {
+					result = task.call();
+				} catch (Exception e) {
+					Main.trace("Database task failed: " + e.getMessage());
+				}
+				if (listener != null) {
+					final T r = result;
+					handler_.post(new Runnable() {
+						public void run() {
+							listener.onResult(r);
+						}
+					});
+				}
+				return result;
+			}
+		});
+	}
+
+	/**
+	 * Reads the IDs, names and coordinates of every building into DBWrapper
+	 * off the UI thread, so its first synchronous use does not scan the
+	 * table
+	 *
+	 * @param done
+	 *            run on the UI thread afterwards, may be null
+	 */
+	public static Future<?> preload(final Runnable done) {
+		return executor_.submit(new Runnable() {
+			public void run() {
+				long start = System.currentTimeMillis();
+				DBWrapper.cacheMainData();
+				Main.trace("Preloaded buildings in "
+						+ (System.currentTimeMillis() - start) + "ms");
+				if (done != null)
+					handler_.post(done);
+			}
+		});
+	}
+
+	// Runs on the I/O thread
+	private static void load(Request[] requests) {
+		long[] rowIDs = new long[requests.length];
+		for (int i = 0; i < requests.length; i++)
+			rowIDs[i] = requests[i].rowID_;
+
+		Building[] buildings;
+		try {
+			buildings = DBWrapper.cacheBuildings(rowIDs);
+		} catch (RuntimeException e) {
+			Main.trace("Couldn't load " + rowIDs.length + " buildings: "
+					+ e.getMessage());
+			buildings = new Building[rowIDs.length];
+		}
+
+		for (int i = 0; i < requests.length; i++)
+			requests[i].deliver(buildings[i]);
+	}
+}
@@ -0,0 +1,191 @@
+/**
+ * Android Campus Maps
+ *  http://code.google.com/p/vuphone/
+ *
+ * Copyright 2009 VUPhone Team
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package edu.vanderbilt.vuphone.android.campusmaps.storage;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+
+import edu.vanderbilt.vuphone.android.campusmaps.Main;
+
+/**
+ * Reads the building snapshot that tools/BuildingPackCompiler builds from
+ * buildings.xml. Coordinates are read in place from the file's buffer and
+ * strings are decoded from its UTF-8 string table on demand. Names are
+ * already title cased and coordinates already converted, so no XML is
+ * parsed at startup.
+ *
+ * The asset is memory-mapped when it is stored uncompressed in the APK, and
+ * otherwise read into memory with one bulk read.
+ *
+ * File layout, big-endian:
+ *
+ * <pre>
+ * int magic, int version, int count, int tableBytes
+ * int[count] latitudes, int[count] longitudes (microdegrees)
+ * int[count * 3] string starts (name, description, url; -1 for none)
+ * int[count * 3] string lengths, in bytes
+ * byte[tableBytes] string table (UTF-8)
+ * </pre>
+ */
+public class BuildingPack {
+
+	/** Name of the snapshot in assets */
+	public static final String ASSET = "buildings.bin";
+
+	public static final int MAGIC = 0x56554253; // "VUBS"
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 16;
+
+	private final int count_;
+	private final IntBuffer lats_;
+	private final IntBuffer lons_;
+	private final IntBuffer starts_;
+	private final IntBuffer lengths_;
+	private final ByteBuffer strings_;
+
+	private BuildingPack(ByteBuffer buffer) throws IOException {
+		if (buffer.remaining() < HEADER_SIZE
+				|| buffer.getInt(0) != MAGIC
+				|| buffer.getInt(4) != VERSION)
+			throw new IOException("not a building snapshot");
+
+		count_ = buffer.getInt(8);
+		int tableBytes = buffer.getInt(12);
+		long expected = HEADER_SIZE + count_ * 32L + tableBytes;
+		if (count_ < 0 || tableBytes < 0 || expected > buffer.capacity())
+			throw new IOException("truncated building snapshot");
+
+		int pos = HEADER_SIZE;
+		lats_ = ints(buffer, pos, count_);
+		lons_ = ints(buffer, pos += count_ * 4, count_);
+		starts_ = ints(buffer, pos += count_ * 4, count_ * 3);
+		lengths_ = ints(buffer, pos += count_ * 12, count_ * 3);
+		pos += count_ * 12;
+		buffer.position(pos);
+		buffer.limit(pos + tableBytes);
+		strings_ = buffer.slice();
+	}
+
+	/**
+	 * @return the snapshot in assets, or null if there is none or it can't
+	 *         be read
+	 */
+	public static BuildingPack open(AssetManager assets) {
+		try {
+			return new BuildingPack(read(assets));
+		} catch (IOException e) {
+			Main.trace("No building snapshot: " + e.getMessage());
+			return null;
+		}
+	}
+
+	public int size() {
+		return count_;
+	}
+
+	public int getLat_(int i) {
+		return lats_.get(i);
+	}
+
+	public int getLong_(int i) {
+		return lons_.get(i);
+	}
+
+	public String getName(int i) {
+		return string(i * 3);
+	}
+
+	public String getDescription(int i) {
+		return string(i * 3 + 1);
+	}
+
+	public String getImageURL(int i) {
+		return string(i * 3 + 2);
+	}
+
+	/**
+	 * @return building i, with its index as the ID like BuildingXMLParser
+	 */
+	public Building get(int i) {
+		return new Building(i, getLat_(i), getLong_(i), getName(i),
+				getDescription(i), getImageURL(i));
+	}
+
+	private String string(int k) {
+		int start = starts_.get(k);
+		if (start < 0)
+			return null;
+		byte[] utf8 = new byte[lengths_.get(k)];
+		ByteBuffer view = strings_.duplicate();
+		view.position(start);
+		view.get(utf8);
+		try {
+			return new String(utf8, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			// UTF-8 is always supported
+			throw new IllegalStateException(e.getMessage());
+		}
+	}
+
+	private static IntBuffer ints(ByteBuffer buffer, int pos, int count) {
+		buffer.limit(buffer.capacity());
+		buffer.position(pos);
+		IntBuffer ints = buffer.slice().asIntBuffer();
+		ints.limit(count);
+		return ints;
+	}
+
+	private static ByteBuffer read(AssetManager assets) throws IOException {
+		// Uncompressed assets can be mapped straight from the APK
+		try {
+			AssetFileDescriptor fd = assets.openFd(ASSET);
+			FileInputStream in = fd.createInputStream();
+			try {
+				FileChannel channel = in.getChannel();
+				return channel.map(FileChannel.MapMode.READ_ONLY, fd
+						.getStartOffset(), fd.getLength());
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			// Compressed, fall back to reading it
+		}
+
+		InputStream in = assets.open(ASSET);
+		try {
+			byte[] data = new byte[Math.max(in.available(), 4096)];
+			int length = 0, n;
+			while ((n = in.read(data, length, data.length - length)) != -1) {
+				length += n;
+				if (length == data.length) {
+					byte[] grown = new byte[length * 2];
+					System.arraycopy(data, 0, grown, 0, length);
+					data = grown;
+				}
+			}
+			return ByteBuffer.wrap(data, 0, length).slice();
+		} finally {
+			in.close();
+		}
+	}
+}
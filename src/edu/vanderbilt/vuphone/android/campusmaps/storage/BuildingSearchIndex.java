@@ -0,0 +1,284 @@
+/**
+ * Android Campus Maps
+ *  http://code.google.com/p/vuphone/
+ *
+ * Copyright 2009 VUPhone Team
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package edu.vanderbilt.vuphone.android.campusmaps.storage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+/**
+ * In-memory substring search over building names and descriptions.
+ *
+ * Every trigram (three character sequence) of the lower cased name and
+ * description points to the buildings containing it. A query is answered by
+ * intersecting the lists of its trigrams and then checking the few remaining
+ * candidates. Results are ranked: name prefix, then word prefix inside the
+ * name, then anywhere in the name, then description matches. Ties are in
+ * name order.
+ *
+ * When a query contains the previous one (the user typed another letter)
+ * only the previous results are checked again.
+ */
+public class BuildingSearchIndex {
+
+	private static final int NAME_PREFIX = 0;
+	private static final int WORD_PREFIX = 1;
+	private static final int NAME_MATCH = 2;
+	private static final int DESC_MATCH = 3;
+	private static final int NO_MATCH = 4;
+
+	// Documents are numbered in name order, so a smaller number sorts first
+	private final long[] ids_;
+	private final String[] names_;
+	private final String[] lowerNames_;
+	private final String[] lowerDescs_;
+
+	// Trigram -> posting list number, posting lists hold ascending docs
+	private final LongIntMap gramOf_ = new LongIntMap();
+	private int[][] postings_ = new int[64][];
+	private int[] postingSizes_ = new int[64];
+	private int gramCount_ = 0;
+
+	// Last query and its ranked results, reused by the next keystroke
+	private String lastQuery_ = null;
+	private int[] lastResults_ = null;
+
+	private BuildingSearchIndex(long[] ids, String[] names, String[] descs) {
+		int n = ids.length;
+		ids_ = ids;
+		names_ = names;
+		lowerNames_ = new String[n];
+		lowerDescs_ = new String[n];
+		for (int doc = 0; doc < n; doc++) {
+			lowerNames_[doc] = names[doc] == null ? "" : names[doc]
+					.toLowerCase();
+			lowerDescs_[doc] = descs[doc] == null ? "" : descs[doc]
+					.toLowerCase();
+			addGrams(doc, lowerNames_[doc]);
+			addGrams(doc, lowerDescs_[doc]);
+		}
+	}
+
+	/**
+	 * Reads the ID, name and description of every building
+	 */
+	public static BuildingSearchIndex build(DBAdapter adapter) {
+		Cursor c = adapter.getCursor(DBAdapter.PROJECTION_SEARCH);
+
+		final ArrayList<Object[]> rows = new ArrayList<Object[]>(c.getCount());
+		while (c.moveToNext())
+			rows.add(new Object[] { c.getLong(0), c.getString(1),
+					c.getString(2) });
+		c.close();
+
+		Collections.sort(rows, new Comparator<Object[]>() {
+			public int compare(Object[] a, Object[] b) {
+				String x = a[1] == null ? "" : (String) a[1];
+				String y = b[1] == null ? "" : (String) b[1];
+				return x.compareTo(y);
+			}
+		});
+
+		int n = rows.size();
+		long[] ids = new long[n];
+		String[] names = new String[n];
+		String[] descs = new String[n];
+		for (int i = 0; i < n; i++) {
+			Object[] row = rows.get(i);
+			ids[i] = (Long) row[0];
+			names[i] = (String) row[1];
+			descs[i] = (String) row[2];
+		}
+
+		return new BuildingSearchIndex(ids, names, descs);
+	}
+
+	public int size() {
+		return ids_.length;
+	}
+
+	public long getID(int doc) {
+		return ids_[doc];
+	}
+
+	public String getName(int doc) {
+		return names_[doc];
+	}
+
+	/**
+	 * Finds the buildings whose name or description contains text, ignoring
+	 * case
+	 *
+	 * @return ranked document numbers, use getID() and getName() to read them
+	 */
+	public synchronized int[] search(String text) {
+		String q = text == null ? "" : text.trim().toLowerCase();
+
+		int[] candidates;
+		if (q.length() == 0) {
+			candidates = allDocs();
+		} else if (lastQuery_ != null && lastQuery_.length() > 0
+				&& q.contains(lastQuery_)) {
+			// Anything matching q also matched the last query
+			candidates = lastResults_;
+		} else if (q.length() >= 3) {
+			candidates = intersectGrams(q);
+		} else {
+			candidates = allDocs();
+		}
+
+		int[] results = rank(q, candidates);
+		lastQuery_ = q;
+		lastResults_ = results;
+		return results;
+	}
+
+	/**
+	 * Wraps results in a cursor with COLUMN_ID and COLUMN_NAME, suitable for
+	 * the building list adapter
+	 */
+	public Cursor toCursor(int[] docs) {
+		MatrixCursor c = new MatrixCursor(new String[] { DBAdapter.COLUMN_ID,
+				DBAdapter.COLUMN_NAME }, docs.length);
+		for (int doc : docs)
+			c.addRow(new Object[] { ids_[doc], names_[doc] });
+		return c;
+	}
+
+	private int[] rank(String q, int[] candidates) {
+		if (q.length() == 0)
+			return candidates;
+
+		// score in the high bits, doc (already in name order) in the low bits
+		long[] keys = new long[candidates.length];
+		int n = 0;
+		for (int doc : candidates) {
+			int score = score(doc, q);
+			if (score != NO_MATCH)
+				keys[n++] = ((long) score << 32) | doc;
+		}
+		Arrays.sort(keys, 0, n);
+
+		int[] results = new int[n];
+		for (int i = 0; i < n; i++)
+			results[i] = (int) keys[i];
+		return results;
+	}
+
+	private int score(int doc, String q) {
+		String name = lowerNames_[doc];
+		int at = name.indexOf(q);
+		if (at == 0)
+			return NAME_PREFIX;
+		if (at > 0) {
+			// Look for any occurrence at the start of a word
+			while (at > 0) {
+				if (!Character.isLetterOrDigit(name.charAt(at - 1)))
+					return WORD_PREFIX;
+				at = name.indexOf(q, at + 1);
+			}
+			return NAME_MATCH;
+		}
+		if (lowerDescs_[doc].indexOf(q) >= 0)
+			return DESC_MATCH;
+		return NO_MATCH;
+	}
+
+	private int[] intersectGrams(String q) {
+		int[] result = null;
+		for (int i = 0; i + 3 <= q.length(); i++) {
+			int g = gramOf_.get(gram(q, i));
+			if (g < 0)
+				return new int[0];
+			int[] list = postings_[g];
+			int size = postingSizes_[g];
+			if (result == null) {
+				result = new int[size];
+				System.arraycopy(list, 0, result, 0, size);
+			} else
+				result = intersect(result, list, size);
+			if (result.length == 0)
+				break;
+		}
+		return result;
+	}
+
+	private static int[] intersect(int[] a, int[] b, int bSize) {
+		int[] out = new int[Math.min(a.length, bSize)];
+		int i = 0, j = 0, n = 0;
+		while (i < a.length && j < bSize) {
+			if (a[i] < b[j])
+				i++;
+			else if (a[i] > b[j])
+				j++;
+			else {
+				out[n++] = a[i];
+				i++;
+				j++;
+			}
+		}
+		return n == out.length ? out : resize(out, n);
+	}
+
+	private int[] allDocs() {
+		int[] docs = new int[ids_.length];
+		for (int i = 0; i < docs.length; i++)
+			docs[i] = i;
+		return docs;
+	}
+
+	private void addGrams(int doc, String text) {
+		for (int i = 0; i + 3 <= text.length(); i++) {
+			long key = gram(text, i);
+			int g = gramOf_.get(key);
+			if (g < 0) {
+				if (gramCount_ == postings_.length) {
+					int[][] grown = new int[gramCount_ * 2][];
+					System.arraycopy(postings_, 0, grown, 0, gramCount_);
+					postings_ = grown;
+					postingSizes_ = resize(postingSizes_, gramCount_ * 2);
+				}
+				g = gramCount_++;
+				postings_[g] = new int[4];
+				gramOf_.put(key, g);
+			}
+
+			int size = postingSizes_[g];
+			// Docs are added in order, so only the tail can be a duplicate
+			if (size > 0 && postings_[g][size - 1] == doc)
+				continue;
+			if (size == postings_[g].length)
+				postings_[g] = resize(postings_[g], size * 2);
+			postings_[g][size] = doc;
+			postingSizes_[g] = size + 1;
+		}
+	}
+
+	// Copies as much of a as fits into a new array of the given length
+	private static int[] resize(int[] a, int length) {
+		int[] b = new int[length];
+		System.arraycopy(a, 0, b, 0, Math.min(a.length, length));
+		return b;
+	}
+
+	private static long gram(String s, int i) {
+		return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16)
+				| s.charAt(i + 2);
+	}
+}
@@ -0,0 +1,195 @@
+/**
+ * Android Campus Maps
+ *  http://code.google.com/p/vuphone/
+ *
+ * Copyright 2009 VUPhone Team
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package edu.vanderbilt.vuphone.android.campusmaps.storage;
+
+import java.util.ArrayList;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+
+import edu.vanderbilt.vuphone.android.campusmaps.Main;
+import edu.vanderbilt.vuphone.android.campusmaps.tools.BuildingXMLParser;
+import edu.vanderbilt.vuphone.android.campusmaps.tools.Downloader;
+
+/**
+ * Keeps the building table up to date with the server's building feed
+ * without downloading or rewriting the whole list.
+ *
+ * Each sync sends the ETag and modification time saved by the last one, as
+ * If-None-Match / If-Modified-Since headers and as a "since" parameter. An
+ * unchanged feed answers 304 and nothing else happens; otherwise the feed
+ * holds only the features changed since then, in the same format as
+ * buildings.xml. Those are upserted by name in one transaction through
+ * DBWrapper.upsertAll(), which refreshes only their cache slots.
+ *
+ * The download, parse and database write run on a background thread; the
+ * saved version is updated and the listener called on the thread that
+ * created the BuildingSync.
+ *
+ * Deleting buildings is not a goal. The feed only lists features that were
+ * added or changed and has no record of removed ones, so a building that
+ * disappears from campus stays in the table until the app's data is
+ * cleared or it is reloaded from the bundled list.
+ */
+public class BuildingSync {
+
+	public interface Listener {
+		/**
+		 * @param changed
+		 *            - number of buildings written, 0 if the feed had not
+		 *            changed, or -1 if the sync failed
+		 */
+		public void onSyncFinished(int changed);
+	}
+
+	public static final String FEED_URL = "http://www.vanderbilt.edu/map/buildings.xml";
+
+	/** Don't check the feed more often than this, in ms */
+	public static final long SYNC_INTERVAL = 24 * 60 * 60 * 1000L;
+
+	private static final String PREFS = "building_sync";
+	private static final String KEY_ETAG = "etag";
+	private static final String KEY_MODIFIED = "last_modified";
+	private static final String KEY_CHECKED = "last_checked";
+
+	private final SharedPreferences prefs_;
+	private final String url_;
+	private final Handler handler_ = new Handler();
+	private boolean running_ = false;
+
+	public BuildingSync(Context ctx) {
+		this(ctx, FEED_URL);
+	}
+
+	public BuildingSync(Context ctx, String url) {
+		prefs_ = ctx.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+		url_ = url;
+	}
+
+	/**
+	 * @return true if the feed has not been checked within SYNC_INTERVAL
+	 */
+	public boolean isDue() {
+		long checked = prefs_.getLong(KEY_CHECKED, 0);
+		long now = System.currentTimeMillis();
+		return now - checked > SYNC_INTERVAL || now < checked;
+	}
+
+	/**
+	 * Forgets the saved version so the next sync fetches the whole feed,
+	 * e.g. after the table was reloaded from buildings.bin
+	 */
+	public void reset() {
+		prefs_.edit().remove(KEY_ETAG).remove(KEY_MODIFIED).remove(
+				KEY_CHECKED).commit();
+	}
+
+	/**
+	 * Starts a sync unless one is already running
+	 *
+	 * @return false if a sync was already running
+	 */
+	public boolean start(final Listener listener) {
+		if (running_)
+			return false;
+		running_ = true;
+
+		final String etag = prefs_.getString(KEY_ETAG, null);
+		final long modified = prefs_.getLong(KEY_MODIFIED, 0);
+		new Thread(new Runnable() {
+			public void run() {
+				fetch(etag, modified, listener);
+			}
+		}, "BuildingSync").start();
+		return true;
+	}
+
+	// Runs on the background thread
+	private void fetch(String etag, long modified, final Listener listener) {
+		final ArrayList<Building> changed = new ArrayList<Building>();
+		String url = url_;
+		if (modified > 0)
+			url += (url.indexOf('?') < 0 ? "?" : "&") + "since=" + modified;
+
+		Downloader.Response response = null;
+		try {
+			response = Downloader.open(url, etag, modified);
+			if (!response.isNotModified()
+					&& BuildingXMLParser.parse(response.getStream(),
+							new BuildingXMLParser.Listener() {
+								public void onBuilding(Building b) {
+									changed.add(b);
+								}
+							}) < 0)
+				throw new Exception("feed could not be parsed");
+		} catch (Exception e) {
+			Main.trace("Building sync failed: " + e.getMessage());
+			if (response != null)
+				response.close();
+			finish(listener, -1);
+			return;
+		}
+
+		final boolean notModified = response.isNotModified();
+		final String newETag = response.getETag();
+		final long newModified = response.getLastModified();
+		response.close();
+
+		int rows = 0;
+		if (!notModified && changed.size() > 0) {
+			long[] rowIDs = DBWrapper.upsertAll(changed);
+			if (rowIDs == null) {
+				finish(listener, -1);
+				return;
+			}
+			rows = rowIDs.length;
+		}
+
+		final int written = rows;
+		handler_.post(new Runnable() {
+			public void run() {
+				// Only move the version forward once the rows are stored
+				SharedPreferences.Editor edit = prefs_.edit();
+				if (!notModified) {
+					if (newETag != null)
+						edit.putString(KEY_ETAG, newETag);
+					else
+						edit.remove(KEY_ETAG);
+					edit.putLong(KEY_MODIFIED, newModified);
+				}
+				edit.putLong(KEY_CHECKED, System.currentTimeMillis());
+				edit.commit();
+
+				Main.trace("Building sync wrote " + written + " buildings");
+				onFinished(listener, written);
+			}
+		});
+	}
+
+	private void finish(final Listener listener, final int changed) {
+		handler_.post(new Runnable() {
+			public void run() {
+				onFinished(listener, changed);
+			}
+		});
+	}
+
+	private void onFinished(Listener listener, int changed) {
+		running_ = false;
+		if (listener != null)
+			listener.onSyncFinished(changed);
+	}
+}
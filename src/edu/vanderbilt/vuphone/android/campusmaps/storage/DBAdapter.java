@@ -17,25 +17,61 @@
  */
 package edu.vanderbilt.vuphone.android.campusmaps.storage;
 
+import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.database.sqlite.SQLiteDatabase.CursorFactory;
 import android.util.Log;
 
+import edu.vanderbilt.vuphone.android.campusmaps.tools.BuildingXMLParser;
+
+/**
+ * Access to the building table. There is one DBAdapter per process, from
+ * getInstance(), and it keeps one connection open for as long as the process
+ * lives instead of opening and closing the database around each use.
+ * 
+ * It may be used from several threads. Methods that run compiled statements
+ * are synchronized, since a statement's bindings are shared; queries are
+ * not, and rely on SQLiteDatabase's own locking.
+ * 
+ * No prebuilt database ships in the APK. A new database is created empty at
+ * DB_VERSION and BuildingList.populateBuildings() fills it from
+ * buildings.bin in one transaction, so the building list is packaged once
+ * and a schema change never needs a rebuilt asset.
+ */
 public class DBAdapter {
 
+	/**
+	 * Hands buildings to createBuildings() one at a time as they are read,
+	 * so a whole file never has to be held in memory
+	 */
+	public interface BuildingSource {
+		/**
+		 * Passes every building to out
+		 * 
+		 * @return false if reading failed and the load should be rolled back
+		 */
+		public boolean read(BuildingXMLParser.Listener out);
+	}
+
 	/** Used for logging */
 	private static final String pre = "DBAdapter";
 
-	/** Used for database updates */
-	private static final int DB_VERSION = 1;
+	/** Used for database updates, the number of entries in MIGRATIONS + 1 */
+	private static final int DB_VERSION = 3;
 
 	/** The filename where the database is stored */
 	private static final String DB_NAME = "campusmaps";
@@ -53,8 +89,61 @@ public class DBAdapter {
 	public static final String COLUMN_DESCRIPTION = "description";
 	public static final String COLUMN_URL = "url";
 
+	/**
+	 * Common projections. Passing these constants to getCursor() lets the
+	 * SQL built for them be reused.
+	 */
+	public static final String[] PROJECTION_ID = { COLUMN_ID };
+	public static final String[] PROJECTION_MAIN = { COLUMN_ID, COLUMN_NAME,
+			COLUMN_LATITUDE, COLUMN_LONGITUDE };
+	public static final String[] PROJECTION_DETAILS = { COLUMN_DESCRIPTION,
+			COLUMN_URL };
+	public static final String[] PROJECTION_SEARCH = { COLUMN_ID,
+			COLUMN_NAME, COLUMN_DESCRIPTION };
+	public static final String[] PROJECTION_LOCATION = { COLUMN_ID,
+			COLUMN_LATITUDE, COLUMN_LONGITUDE };
+	public static final String[] PROJECTION_IMAGE = { COLUMN_ID, COLUMN_URL };
+	public static final String[] PROJECTION_ALL = { COLUMN_ID, COLUMN_NAME,
+			COLUMN_LATITUDE, COLUMN_LONGITUDE, COLUMN_DESCRIPTION, COLUMN_URL };
+
+	/** Selects one building by row ID, bound as the first argument */
+	private static final String ID_SELECTION = COLUMN_ID + " = ?";
+
+	/**
+	 * Selects the buildings in a box, bound as min and max latitude then min
+	 * and max longitude. Served by the location index.
+	 */
+	private static final String BOX_SELECTION = COLUMN_LATITUDE
+			+ " BETWEEN ? AND ? AND " + COLUMN_LONGITUDE + " BETWEEN ? AND ?";
+
+	/** Case insensitive name order, served by the NOCASE name index */
+	private static final String NAME_ORDER = COLUMN_NAME + " COLLATE NOCASE";
+
+	/** Most projections cached before the cache is cleared */
+	private static final int MAX_CACHED_PROJECTIONS = 16;
+
+	/** The shared adapter, see getInstance() */
+	private static DBAdapter instance_ = null;
+
+	/** Connections opened and closed since the process started */
+	private static final AtomicInteger opens_ = new AtomicInteger();
+	private static final AtomicInteger closes_ = new AtomicInteger();
+
 	/** Handle to the database instance */
-	private SQLiteDatabase db_;
+	private volatile SQLiteDatabase db_;
+
+	/**
+	 * Statements compiled against db_, by SQL. They belong to that
+	 * connection, so they are closed whenever it changes.
+	 */
+	private final HashMap<String, SQLiteStatement> statements_ = new HashMap<String, SQLiteStatement>();
+
+	/**
+	 * SQL for each projection passed to getCursor(), as { all rows, one row
+	 * by ID, rows in a box }. Keyed by array identity so a lookup allocates
+	 * nothing.
+	 */
+	private final IdentityHashMap<String[], String[]> queries_ = new IdentityHashMap<String[], String[]>();
 
 	/** Used to help open and update the database */
 	private DatabaseHelper DBHelper;
@@ -71,11 +160,83 @@ public class DBAdapter {
 			+ COLUMN_DESCRIPTION + " TEXT,              " + COLUMN_URL
 			+ " TEXT)";
 
-	public DBAdapter(Context ctx) {
+	/** Used by createBuildings() to bulk load rows */
+	private static final String BUILDING_INSERT = "INSERT INTO "
+			+ BUILDING_TABLE + " (" + COLUMN_NAME + ", " + COLUMN_LATITUDE
+			+ ", " + COLUMN_LONGITUDE + ", " + COLUMN_DESCRIPTION + ", "
+			+ COLUMN_URL + ") VALUES (?, ?, ?, ?, ?)";
+
+	/** Used by upsertBuildings() to find a building by its name */
+	private static final String BUILDING_FIND = "SELECT " + COLUMN_ID
+			+ " FROM " + BUILDING_TABLE + " WHERE " + COLUMN_NAME
+			+ " = ? LIMIT 1";
+
+	/** Used by isEmpty(), stops at the first row instead of counting them */
+	private static final String BUILDING_ANY = "SELECT EXISTS (SELECT 1 FROM "
+			+ BUILDING_TABLE + " LIMIT 1)";
+
+	/** Used by upsertBuildings() to replace a building's other columns */
+	private static final String BUILDING_REPLACE = "UPDATE " + BUILDING_TABLE
+			+ " SET " + COLUMN_LATITUDE + " = ?, " + COLUMN_LONGITUDE
+			+ " = ?, " + COLUMN_DESCRIPTION + " = ?, " + COLUMN_URL
+			+ " = ? WHERE " + COLUMN_ID + " = ?";
+
+	/**
+	 * Schema changes, in order. MIGRATIONS[i] takes the database from version
+	 * i + 1 to version i + 2. Never edit a step that has shipped; add a new
+	 * one and bump DB_VERSION.
+	 */
+	private static final String[][] MIGRATIONS = {
+	// 2: look buildings up by name when syncing
+	{ "CREATE INDEX IF NOT EXISTS " + BUILDING_TABLE + "_" + COLUMN_NAME
+			+ " ON " + BUILDING_TABLE + " (" + COLUMN_NAME + ")" },
+	// 3: sorted list without a temp B-tree, and bounding box queries
+	{
+			"CREATE INDEX IF NOT EXISTS " + BUILDING_TABLE + "_"
+					+ COLUMN_NAME + "_nocase ON " + BUILDING_TABLE + " ("
+					+ COLUMN_NAME + " COLLATE NOCASE)",
+			"CREATE INDEX IF NOT EXISTS " + BUILDING_TABLE + "_location ON "
+					+ BUILDING_TABLE + " (" + COLUMN_LATITUDE + ", "
+					+ COLUMN_LONGITUDE + ")" }, };
+
+	private DBAdapter(Context ctx) {
 		this.context = ctx;
 		DBHelper = new DatabaseHelper(context);
 		open();
-		DBHelper.onCreate(db_);
+	}
+
+	/**
+	 * @return the adapter shared by the whole process, opened on first use.
+	 *         Callers should not close it.
+	 */
+	public static synchronized DBAdapter getInstance(Context ctx) {
+		if (instance_ == null)
+			instance_ = new DBAdapter(ctx.getApplicationContext());
+		return instance_;
+	}
+
+	/** @return the number of times a connection was opened */
+	public static int getOpenCount() {
+		return opens_.get();
+	}
+
+	/** @return the number of times a connection was closed */
+	public static int getCloseCount() {
+		return closes_.get();
+	}
+
+	/**
+	 * Runs the migration steps that take a database from one version to
+	 * another
+	 */
+	private static void migrate(SQLiteDatabase db, int from, int to) {
+		for (int version = from + 1; version <= to; version++) {
+			long start = System.currentTimeMillis();
+			for (String sql : MIGRATIONS[version - 2])
+				db.execSQL(sql);
+			Log.i(pre, "Migrated database to version " + version + " in "
+					+ (System.currentTimeMillis() - start) + "ms");
+		}
 	}
 
 	public class DatabaseHelper extends SQLiteOpenHelper {
@@ -98,41 +259,137 @@ public class DBAdapter {
 		public void onCreate(SQLiteDatabase db) {
 			Log.i("i", pre + "Creating a new DB");
 			db.execSQL(BUILDING_CREATE);
+			migrate(db, 1, DB_VERSION);
 		}
 
 		/**
+		 * Runs each migration step between the two versions in order. The
+		 * helper wraps this in a transaction, so a failed step leaves the
+		 * old schema and data untouched.
+		 * 
 		 * @see android.database.sqlite.SQLiteOpenHelper#onUpgrade(android.database.sqlite.SQLiteDatabase,
 		 *      int, int)
 		 */
 		@Override
 		public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-			// Log the version upgrade.
-			Log
-					.w("pre", "Upgrading database from version " + oldVersion
-							+ " to " + newVersion
-							+ ", which will destroy all old data");
-
-			db.execSQL("DROP TABLE IF EXISTS " + BUILDING_TABLE);
-			onCreate(db);
+			Log.i(pre, "Upgrading database from version " + oldVersion
+					+ " to " + newVersion);
+			migrate(db, oldVersion, newVersion);
 		}
 	}
 
 	/**
-	 * Opens the database
+	 * Opens the database, unless it is already open
 	 * 
 	 * @return this DBAdater
 	 * @throws SQLException
 	 */
-	public DBAdapter open() throws SQLException {
-		db_ = DBHelper.getWritableDatabase();
+	public synchronized DBAdapter open() throws SQLException {
+		if (db_ != null && db_.isOpen())
+			return this;
+		SQLiteDatabase db = DBHelper.getWritableDatabase();
+		opens_.incrementAndGet();
+		enableWriteAheadLogging(db);
+		setDatabase(db);
 		return this;
 	}
 
-	/** Used to close the database when done */
-	public void close() {
+	/**
+	 * Closes the database. The shared adapter is normally left open until
+	 * the process exits; the next call that needs it opens it again.
+	 */
+	public synchronized void close() {
+		if (db_ != null)
+			closes_.incrementAndGet();
+		setDatabase(null);
 		DBHelper.close();
 	}
 
+	/**
+	 * Lets readers run alongside a writer where the platform supports it.
+	 * SQLiteDatabase.enableWriteAheadLogging() only exists from API level
+	 * 11, so it is looked up at run time; on older releases the single
+	 * connection serializes access instead.
+	 */
+	private static void enableWriteAheadLogging(SQLiteDatabase db) {
+		try {
+			Method wal = SQLiteDatabase.class
+					.getMethod("enableWriteAheadLogging");
+			Object enabled = wal.invoke(db);
+			Log.i(pre, "Write-ahead logging " + enabled);
+		} catch (NoSuchMethodException e) {
+			// Not available on this release
+		} catch (Exception e) {
+			Log.w(pre, "Write-ahead logging not enabled: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return the open connection, reopening it if close() was called. Every
+	 *         query and write goes through here rather than reading db_.
+	 */
+	private SQLiteDatabase db() {
+		SQLiteDatabase db = db_;
+		if (db != null && db.isOpen())
+			return db;
+		return open().db_;
+	}
+
+	// Switches to another connection, dropping statements compiled for the
+	// old one
+	private void setDatabase(SQLiteDatabase db) {
+		if (db != db_) {
+			for (SQLiteStatement statement : statements_.values())
+				statement.close();
+			statements_.clear();
+		}
+		db_ = db;
+	}
+
+	/**
+	 * @return the statement for sql, compiled once per connection. Callers
+	 *         must bind every argument before executing it.
+	 */
+	private SQLiteStatement statement(String sql) {
+		// Reopening drops the statements compiled for the old connection
+		SQLiteDatabase db = db();
+		SQLiteStatement statement = statements_.get(sql);
+		if (statement == null) {
+			statement = db.compileStatement(sql);
+			statements_.put(sql, statement);
+		}
+		return statement;
+	}
+
+	/**
+	 * @return { all rows, one row by ID, rows in a box } queries for a
+	 *         projection
+	 */
+	private String[] queries(String[] columns) {
+		synchronized (queries_) {
+			String[] sql = queries_.get(columns);
+			if (sql == null) {
+				if (queries_.size() >= MAX_CACHED_PROJECTIONS)
+					queries_.clear();
+				String all = SQLiteQueryBuilder.buildQueryString(false,
+						BUILDING_TABLE, columns, null, null, null, null, null);
+				String byID = SQLiteQueryBuilder.buildQueryString(false,
+						BUILDING_TABLE, columns, ID_SELECTION, null, null,
+						null, null);
+				String inBox = SQLiteQueryBuilder.buildQueryString(false,
+						BUILDING_TABLE, columns, BOX_SELECTION, null, null,
+						null, null);
+				sql = new String[] { all, byID, inBox };
+				queries_.put(columns, sql);
+			}
+			return sql;
+		}
+	}
+
+	private static String[] idArgs(long rowId) {
+		return new String[] { Long.toString(rowId) };
+	}
+
 	/**
 	 * Create a new building using the name, latitude, longitude, description,
 	 * and url provided. If the building is successfully created return the new
@@ -150,17 +407,155 @@ public class DBAdapter {
 	 *            url of an image of the building
 	 * @return rowId or -1 if failed
 	 */
-	public long createBuilding(String name, int latitude, int longitude,
-			String description, String url) {
+	public synchronized long createBuilding(String name, int latitude,
+			int longitude, String description, String url) {
+
+		SQLiteStatement insert = statement(BUILDING_INSERT);
+		insert.bindString(1, name);
+		insert.bindLong(2, latitude);
+		insert.bindLong(3, longitude);
+		bindStringOrNull(insert, 4, description);
+		bindStringOrNull(insert, 5, url);
+		try {
+			return insert.executeInsert();
+		} catch (SQLException e) {
+			Log.e(pre, "Insert failed: " + e.getMessage());
+			return -1;
+		}
+	}
+
+	/**
+	 * Inserts every building in one transaction using a single compiled
+	 * statement. This is much faster than calling createBuilding() once per
+	 * building because SQLite only syncs its journal once. Each building is
+	 * written as soon as the source reads it, none are kept.
+	 * 
+	 * @param source
+	 *            reads the buildings to insert, their IDs are ignored
+	 * @return the number of rows inserted, or -1 if the load failed and was
+	 *         rolled back
+	 */
+	public synchronized int createBuildings(BuildingSource source) {
+		long start = System.currentTimeMillis();
+		final int[] count = { 0 };
+		int rows;
+
+		SQLiteDatabase db = db();
+		final SQLiteStatement insert = statement(BUILDING_INSERT);
+		db.beginTransaction();
+		try {
+			boolean read = source.read(new BuildingXMLParser.Listener() {
+				public void onBuilding(Building b) {
+					insert.bindString(1, b.getName());
+					insert.bindLong(2, b.getLat_());
+					insert.bindLong(3, b.getLong_());
+					bindStringOrNull(insert, 4, b.getDescription());
+					bindStringOrNull(insert, 5, b.getImageURL());
+
+					if (insert.executeInsert() != -1)
+						count[0]++;
+				}
+			});
+			if (read) {
+				db.setTransactionSuccessful();
+				rows = count[0];
+			} else {
+				Log.e(pre, "Bulk insert rolled back, the source failed");
+				rows = -1;
+			}
+		} catch (SQLException e) {
+			Log.e(pre, "Bulk insert failed: " + e.getMessage());
+			rows = -1;
+		} finally {
+			db.endTransaction();
+		}
 
-		ContentValues initialValues = new ContentValues(5);
-		initialValues.put(COLUMN_NAME, name);
-		initialValues.put(COLUMN_LATITUDE, latitude);
-		initialValues.put(COLUMN_LONGITUDE, longitude);
-		initialValues.put(COLUMN_DESCRIPTION, description);
-		initialValues.put(COLUMN_URL, url);
+		long elapsed = System.currentTimeMillis() - start;
+		if (rows > 0)
+			Log.i(pre, "Inserted " + rows + " buildings in " + elapsed
+					+ "ms (" + (rows * 1000L / Math.max(elapsed, 1))
+					+ " rows/s)");
+
+		return rows;
+	}
+
+	/**
+	 * Inserts or updates every building in one transaction. Buildings are
+	 * matched by name, since the XML feed has no stable IDs; a building whose
+	 * name is already in the table has its other columns replaced instead of
+	 * being inserted again.
+	 * 
+	 * @param buildings
+	 *            the buildings to write, their IDs are ignored
+	 * @return the row ID of each building in iteration order, or null if the
+	 *         write failed and was rolled back
+	 */
+	public synchronized long[] upsertBuildings(Iterable<Building> buildings) {
+		long[] rowIDs = new long[16];
+		int rows = 0;
+
+		SQLiteDatabase db = db();
+		SQLiteStatement find = statement(BUILDING_FIND);
+		SQLiteStatement replace = statement(BUILDING_REPLACE);
+		SQLiteStatement insert = statement(BUILDING_INSERT);
+		db.beginTransaction();
+		try {
+			for (Building b : buildings) {
+				long rowID;
+				find.bindString(1, b.getName());
+				try {
+					rowID = find.simpleQueryForLong();
+				} catch (SQLiteDoneException e) {
+					rowID = -1;
+				}
+
+				if (rowID == -1) {
+					insert.bindString(1, b.getName());
+					insert.bindLong(2, b.getLat_());
+					insert.bindLong(3, b.getLong_());
+					bindStringOrNull(insert, 4, b.getDescription());
+					bindStringOrNull(insert, 5, b.getImageURL());
+					rowID = insert.executeInsert();
+					if (rowID == -1)
+						throw new SQLException("could not insert "
+								+ b.getName());
+				} else {
+					replace.bindLong(1, b.getLat_());
+					replace.bindLong(2, b.getLong_());
+					bindStringOrNull(replace, 3, b.getDescription());
+					bindStringOrNull(replace, 4, b.getImageURL());
+					replace.bindLong(5, rowID);
+					replace.execute();
+				}
+
+				if (rows == rowIDs.length) {
+					long[] grown = new long[rows * 2];
+					System.arraycopy(rowIDs, 0, grown, 0, rows);
+					rowIDs = grown;
+				}
+				rowIDs[rows++] = rowID;
+			}
+			db.setTransactionSuccessful();
+		} catch (SQLException e) {
+			Log.e(pre, "Upsert failed: " + e.getMessage());
+			rowIDs = null;
+		} finally {
+			db.endTransaction();
+		}
+
+		if (rowIDs == null)
+			return null;
+		long[] result = new long[rows];
+		System.arraycopy(rowIDs, 0, result, 0, rows);
+		return result;
+	}
 
-		return db_.insert(BUILDING_TABLE, null, initialValues);
+	private static void bindStringOrNull(SQLiteStatement s, int index,
+			String value) {
+		if (value == null)
+			s.bindNull(index);
+		else
+			s.bindString(index, value);
 	}
 
 	/**
@@ -170,9 +565,18 @@ public class DBAdapter {
 	 *            id of building to delete
 	 * @return true if deleted, false otherwise
 	 */
-	public boolean deleteBuilding(long rowId) {
+	public synchronized boolean deleteBuilding(long rowId) {
+		// The row count comes from the write itself. A separate SELECT
+		// changes() could run on another connection once write-ahead
+		// logging is on, and would then always report 0.
+		return db().delete(BUILDING_TABLE, ID_SELECTION, idArgs(rowId)) > 0;
+	}
 
-		return db_.delete(BUILDING_TABLE, COLUMN_ID + "=" + rowId, null) > 0;
+	/**
+	 * @return true if the table has no buildings, without reading any of them
+	 */
+	public synchronized boolean isEmpty() {
+		return statement(BUILDING_ANY).simpleQueryForLong() == 0;
 	}
 
 	/**
@@ -185,8 +589,7 @@ public class DBAdapter {
 	 * @see DBAdapter.fetchBuilding(long rowId)
 	 */
 	public List<Long> fetchAllBuildingIDs() {
-		Cursor c = db_.query(BUILDING_TABLE, new String[] { COLUMN_ID }, null,
-				null, null, null, null, null);
+		Cursor c = getCursor(PROJECTION_ID);
 
 		ArrayList<Long> buildingIds = new ArrayList<Long>();
 
@@ -217,13 +620,12 @@ public class DBAdapter {
 	 * @TODO - Create a buildingNotFound exception, and throw that instead
 	 */
 	public Building fetchBuilding(long rowId) throws SQLException {
-		Cursor c = db_.query(true, BUILDING_TABLE, new String[] { COLUMN_ID,
-				COLUMN_NAME, COLUMN_LATITUDE, COLUMN_LONGITUDE,
-				COLUMN_DESCRIPTION, COLUMN_URL }, COLUMN_ID + "=" + rowId,
-				null, null, null, null, null);
+		Cursor c = getCursor(PROJECTION_ALL, rowId);
 
-		if (c.moveToFirst() == false)
+		if (c.moveToFirst() == false) {
+			c.close();
 			throw new SQLException("building was not found");
+		}
 
 		String name = c.getString(c.getColumnIndex(COLUMN_NAME));
 		int latitude = c.getInt(c.getColumnIndex(COLUMN_LATITUDE));
@@ -247,7 +649,7 @@ public class DBAdapter {
 	 *         COLUMN_DESCRIPTION, COLUMN_URL.
 	 */
 	public Cursor getCursor(String[] columns) {
-		return db_.query(BUILDING_TABLE, columns, null, null, null, null, null);
+		return db().rawQuery(queries(columns)[0], null);
 	}
 
 	/**
@@ -259,8 +661,57 @@ public class DBAdapter {
 	 * @return A cursor to traverse over building with rowID.
 	 */
 	public Cursor getCursor(String[] columns, long rowId) {
-		return db_.query(true, BUILDING_TABLE, columns,
-				COLUMN_ID + "=" + rowId, null, null, null, null, null);
+		return db().rawQuery(queries(columns)[1], idArgs(rowId));
+	}
+
+	/**
+	 * @param columns
+	 *            An array of column names required to be traversable by the
+	 *            returned Cursor
+	 * @param rowIds
+	 *            the rowIDs of the buildings to be traversed, at most 999
+	 *            since each is a bound argument
+	 * @return A cursor over those of the buildings that exist, read with a
+	 *         single IN (...) query, in no particular order
+	 */
+	public Cursor getCursor(String[] columns, long[] rowIds) {
+		StringBuilder selection = new StringBuilder(COLUMN_ID.length() + 5
+				+ rowIds.length * 3);
+		selection.append(COLUMN_ID).append(" IN (");
+		String[] args = new String[rowIds.length];
+		for (int i = 0; i < rowIds.length; i++) {
+			selection.append(i == 0 ? "?" : ", ?");
+			args[i] = Long.toString(rowIds[i]);
+		}
+		selection.append(')');
+		return db().rawQuery(SQLiteQueryBuilder.buildQueryString(false,
+				BUILDING_TABLE, columns, selection.toString(), null, null,
+				null, null), args);
+	}
+
+	/**
+	 * Return a Cursor over the buildings inside a bounding box, such as the
+	 * visible map area. The location index narrows the scan to the latitude
+	 * range, and with PROJECTION_LOCATION the index alone answers the query.
+	 * 
+	 * @param columns
+	 *            An array of column names required to be traversable by the
+	 *            returned Cursor, preferably a PROJECTION_ constant
+	 * @param minLat
+	 *            southern edge, in microdegrees
+	 * @param minLon
+	 *            western edge, in microdegrees
+	 * @param maxLat
+	 *            northern edge, in microdegrees
+	 * @param maxLon
+	 *            eastern edge, in microdegrees
+	 * @return A cursor over the buildings inside the box, edges included
+	 */
+	public Cursor getCursorInBox(String[] columns, int minLat, int minLon,
+			int maxLat, int maxLon) {
+		return db().rawQuery(queries(columns)[2], new String[] {
+				Integer.toString(minLat), Integer.toString(maxLat),
+				Integer.toString(minLon), Integer.toString(maxLon) });
 	}
 
 	/**
@@ -282,63 +733,72 @@ public class DBAdapter {
 	 *            value to set building image url to
 	 * @return true if the building was successfully updated, false otherwise
 	 */
-	public boolean updateBuilding(long rowId, String name, int latitude,
-			int longitude, String description, String url) {
-
+	public synchronized boolean updateBuilding(long rowId, String name,
+			int latitude, int longitude, String description, String url) {
 		ContentValues args = new ContentValues(5);
 		args.put(COLUMN_NAME, name);
 		args.put(COLUMN_LATITUDE, latitude);
 		args.put(COLUMN_LONGITUDE, longitude);
 		args.put(COLUMN_DESCRIPTION, description);
 		args.put(COLUMN_URL, url);
-
-		return db_.update(BUILDING_TABLE, args, COLUMN_ID + "=" + rowId, null) > 0;
+		return update(rowId, args);
 	}
 
 	// these methods allow individual columns to be updated, without
 	// having to pull the rest of the building from storage
-	public boolean updateColumn(long rowId, String column, int value) {
+	public synchronized boolean updateColumn(long rowId, String column,
+			int value) {
 		ContentValues args = new ContentValues(1);
 		args.put(column, value);
-		return db_.update(BUILDING_TABLE, args, COLUMN_ID + "=" + rowId, null) > 0;
+		return update(rowId, args);
 	}
 
-	public boolean updateColumn(long rowId, String column, long value) {
+	public synchronized boolean updateColumn(long rowId, String column,
+			long value) {
 		ContentValues args = new ContentValues(1);
 		args.put(column, value);
-		return db_.update(BUILDING_TABLE, args, COLUMN_ID + "=" + rowId, null) > 0;
+		return update(rowId, args);
 	}
 
-	public boolean updateColumn(long rowId, String column, String value) {
+	public synchronized boolean updateColumn(long rowId, String column,
+			String value) {
 		ContentValues args = new ContentValues(1);
 		args.put(column, value);
-		return db_.update(BUILDING_TABLE, args, COLUMN_ID + "=" + rowId, null) > 0;
+		return update(rowId, args);
+	}
+
+	// The values are bound and the SQL is the same for the same columns, so
+	// SQLite reuses its plan. The row count is reported by the write itself,
+	// see deleteBuilding().
+	private boolean update(long rowId, ContentValues args) {
+		return db().update(BUILDING_TABLE, args, ID_SELECTION, idArgs(rowId))
+				> 0;
 	}
 
-	/** Used to open a readable database */
+	/**
+	 * Used to open a readable database. The shared connection is writable,
+	 * so this is the same as open().
+	 */
 	public DBAdapter openReadable() throws SQLException {
-		db_ = DBHelper.getReadableDatabase();
-		return this;
+		return open();
 	}
 
 	/** Used to open a writable database */
 	public DBAdapter openWritable() throws SQLException {
-		db_ = DBHelper.getWritableDatabase();
-		return this;
+		return open();
 	}
 
 	/**
 	 * Return a Cursor over the list of all buildings in the database sorted by
-	 * COLUMN_NAME
+	 * COLUMN_NAME, ignoring case
 	 * 
 	 * @return This cursor allows you to reference these columns COLUMN_ID,
 	 *         COLUMN_NAME, COLUMN_LATITUDE, COLUMN_LONGITUDE,
 	 *         COLUMN_DESCRIPTION, COLUMN_URL.
 	 */
 	public Cursor fetchAllBuildingsSortedCursor() {
-		return db_.query(BUILDING_TABLE, new String[] { COLUMN_ID, COLUMN_NAME,
-				COLUMN_LATITUDE, COLUMN_LONGITUDE, COLUMN_DESCRIPTION,
-				COLUMN_URL }, null, null, null, null, COLUMN_NAME);
+		return db().query(BUILDING_TABLE, PROJECTION_ALL, null, null, null,
+				null, NAME_ORDER);
 	}
 
 	/**
@@ -350,10 +810,9 @@ public class DBAdapter {
 	 *         COLUMN_DESCRIPTION, COLUMN_URL.
 	 */
 	public Cursor fetchSomeBuildingsSortedCursor(String compareText) {
-		String whereClause = COLUMN_NAME + " like '%" + compareText + "%'";
-		return db_.query(BUILDING_TABLE, new String[] { COLUMN_ID, COLUMN_NAME,
-				COLUMN_LATITUDE, COLUMN_LONGITUDE, COLUMN_DESCRIPTION,
-				COLUMN_URL }, whereClause, null, null, null, COLUMN_NAME);
+		return db().query(BUILDING_TABLE, PROJECTION_ALL, COLUMN_NAME
+				+ " LIKE ?", new String[] { "%" + compareText + "%" }, null,
+				null, NAME_ORDER);
 	}
 
 }
\ No newline at end of file
@@ -18,6 +18,11 @@
 package edu.vanderbilt.vuphone.android.campusmaps.storage;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import android.database.Cursor;
 import edu.vanderbilt.vuphone.android.campusmaps.Main;
@@ -25,238 +30,521 @@ import edu.vanderbilt.vuphone.android.campusmaps.Main;
 /**
  * This class abstracts database access and caches multiple like accesses.
  * Accessed through the Building class
+ *
+ * It is safe to use from any thread. Readers never lock the cached table:
+ * it is an immutable Table that writers copy, change and publish through a
+ * volatile field. Names and coordinates stay resident, while descriptions
+ * and urls are kept in a DetailCache bounded by size, with its own striped
+ * locks.
+ * Writes and table loads hold one lock, so concurrent misses on the table
+ * run one query, and concurrent misses on one building's details share one
+ * query as well.
  */
 public class DBWrapper {
 
-	private static final int CLOSED = 0;
-	private static final int READABLE = 1;
-	private static final int WRITABLE = 2;
-	private static DBAdapter adapter;
-	private static int state;
-	private static ArrayList<Long> IDs;
-	private static ArrayList<Building> cache;
-	private static boolean idsCached = false;
-	private static boolean mainDataCached = false;
-	private static ArrayList<Boolean> cached;
-
-	@SuppressWarnings("unchecked")
+	// the process-wide adapter, its connection stays open between calls
+	private static volatile DBAdapter adapter;
+
+	// held by writers and by whoever loads the table, never by readers
+	private static final Object lock = new Object();
+
+	// the published table, replaced but never modified
+	private static volatile Table table = Table.EMPTY;
+
+	// buildings with their description and url loaded, least recently used
+	// dropped first
+	private static final DetailCache details = new DetailCache();
+	// detail queries in flight, so a second miss waits for the first
+	private static final ConcurrentHashMap<Long, FutureTask<Building>> loading = new ConcurrentHashMap<Long, FutureTask<Building>>();
+	// bumped by every write, detail loads that straddle one are not cached
+	private static volatile int generation = 0;
+
+	// most buildings read by one IN (...) query in cacheBuildings()
+	private static final int BATCH_SIZE = 100;
+	private static final String[] BATCH_PROJECTION = { DBAdapter.COLUMN_ID,
+			DBAdapter.COLUMN_DESCRIPTION, DBAdapter.COLUMN_URL };
+
+	private static volatile SpatialIndex spatial;
+
+	/**
+	 * Row IDs by slot, the reverse mapping from row ID to slot, and the main
+	 * data of each slot. Only modified before it is published.
+	 */
+	private static class Table {
+		static final Table EMPTY = new Table(0, false, false);
+
+		final boolean idsLoaded;
+		// rows hold names and coordinates, otherwise they are all null
+		final boolean mainLoaded;
+		long[] ids;
+		Building[] rows;
+		int count = 0;
+		final LongIntMap slots;
+
+		Table(int capacity, boolean idsLoaded, boolean mainLoaded) {
+			this.idsLoaded = idsLoaded;
+			this.mainLoaded = mainLoaded;
+			ids = new long[Math.max(capacity, 16)];
+			rows = new Building[ids.length];
+			slots = new LongIntMap(capacity);
+		}
+
+		// an unpublished copy with room for a few more rows
+		Table copy() {
+			Table t = new Table(count + 16, idsLoaded, mainLoaded);
+			for (int i = 0; i < count; i++)
+				t.put(ids[i], rows[i]);
+			return t;
+		}
+
+		// adds a row to the end, or replaces it if it is already present. b
+		// may be null when only IDs are loaded.
+		void put(long rowID, Building b) {
+			int i = slots.get(rowID);
+			if (i >= 0) {
+				rows[i] = b;
+				return;
+			}
+			if (count == ids.length) {
+				long[] grownIDs = new long[count * 2];
+				System.arraycopy(ids, 0, grownIDs, 0, count);
+				ids = grownIDs;
+				Building[] grownRows = new Building[count * 2];
+				System.arraycopy(rows, 0, grownRows, 0, count);
+				rows = grownRows;
+			}
+			ids[count] = rowID;
+			rows[count] = b;
+			slots.put(rowID, count);
+			count++;
+		}
+
+		// removes a row by moving the last slot into its place so no other
+		// slot has to shift
+		void remove(long rowID) {
+			int i = slots.remove(rowID);
+			if (i < 0)
+				return;
+			int last = count - 1;
+			if (i != last) {
+				ids[i] = ids[last];
+				rows[i] = rows[last];
+				slots.put(ids[i], i);
+			}
+			rows[last] = null;
+			count = last;
+		}
+
+		Building row(long rowID) {
+			int i = slots.get(rowID);
+			if (i < 0)
+				throw new RuntimeException(
+						"error, discrepancy between database and memory cache");
+			return rows[i];
+		}
+	}
+
 	public static ArrayList<Long> getIDs() {
-		cacheIDs();
-		return (ArrayList<Long>) IDs.clone();
+		Table t = ids();
+		ArrayList<Long> list = new ArrayList<Long>(t.count);
+		for (int i = 0; i < t.count; i++)
+			list.add(t.ids[i]);
+		return list;
+	}
+
+	// grid index over building locations, built from the resident table and
+	// kept up to date by create, update and delete. Writers publish a
+	// changed copy, so it is never modified while it is being read. The
+	// first call may load the table, so make it off the UI thread.
+	public static SpatialIndex getSpatialIndex() {
+		SpatialIndex s = spatial;
+		if (s != null)
+			return s;
+		synchronized (lock) {
+			if (spatial == null) {
+				Table t = mainData();
+				s = new SpatialIndex();
+				for (int i = 0; i < t.count; i++)
+					s.put(t.ids[i], t.rows[i].getLat_(), t.rows[i].getLong_());
+				spatial = s;
+			}
+			return spatial;
+		}
+	}
+
+	// description and url cache, for its hit rate and size
+	public static DetailCache getDetailCache() {
+		return details;
+	}
+
+	// drops cached descriptions and urls, names and coordinates are kept
+	public static void onLowMemory() {
+		details.onLowMemory();
 	}
 
 	public static Building get(long rowID) {
-		int i = cacheBuilding(rowID);
-		return cache.get(i);
+		return cacheBuilding(rowID);
 	}
 
 	public static String getName(long rowID) {
-		cacheMainData();
-		return cache.get(IDs.indexOf(rowID)).getName();
+		return mainData().row(rowID).getName();
 	}
 
 	public static double getLat(long rowID) {
-		cacheMainData();
-		return (cache.get(IDs.indexOf(rowID)).getLat_() / 1E6);
+		return (mainData().row(rowID).getLat_() / 1E6);
 	}
 
 	public static double getLon(long rowID) {
-		cacheMainData();
-		return (cache.get(IDs.indexOf(rowID)).getLong_() / 1E6);
+		return (mainData().row(rowID).getLong_() / 1E6);
 	}
 
 	public static String getURL(long rowID) {
-		cacheMainData();
-		return cache.get(IDs.indexOf(rowID)).getImageURL();
+		return cacheBuilding(rowID).getImageURL();
 	}
 
 	public static String getDesc(long rowID) {
-		cacheMainData();
-		return cache.get(IDs.indexOf(rowID)).getDescription();
+		return cacheBuilding(rowID).getDescription();
 	}
 
 	public static boolean create(Building b) {
-		makeWritable();
-		long rID = adapter.createBuilding(b.getName(), b.getLat_(), b
-				.getLong_(), b.getDescription(), b.getImageURL());
-		if (mainDataCached && rID != -1) {
-			IDs.add(rID);
-			cache.add(b);
+		synchronized (lock) {
+			initialize();
+			long rID = adapter.createBuilding(b.getName(), b.getLat_(), b
+					.getLong_(), b.getDescription(), b.getImageURL());
+			if (rID == -1)
+				return false;
+
+			Table t = table;
+			if (t.mainLoaded) {
+				t = t.copy();
+				t.put(rID, mainRow(rID, b));
+			} else
+				t = Table.EMPTY;
+			SpatialIndex s = spatial;
+			if (s != null) {
+				s = s.copy();
+				s.put(rID, b.getLat_(), b.getLong_());
+			}
+			publish(t, s);
+			details.put(rID, fullRow(rID, b));
+			return true;
+		}
+	}
+
+	// inserts all of the buildings in a single transaction as the source
+	// reads them, the cache is reset since the new row IDs are not known
+	public static int createAll(DBAdapter.BuildingSource source) {
+		synchronized (lock) {
+			initialize();
+			int rows = adapter.createBuildings(source);
+			if (rows > 0) {
+				publish(Table.EMPTY, null);
+				details.clear();
+			}
+			return rows;
+		}
+	}
+
+	// inserts or updates the buildings, matched by name, in a single
+	// transaction. Only the cache slots of the written rows are refreshed.
+	public static long[] upsertAll(List<Building> buildings) {
+		synchronized (lock) {
+			initialize();
+			long[] rowIDs = adapter.upsertBuildings(buildings);
+			if (rowIDs == null)
+				return null;
+			if (rowIDs.length == 0)
+				return rowIDs;
+
+			Table t = table;
+			if (t.idsLoaded)
+				t = t.copy();
+			SpatialIndex s = spatial;
+			if (s != null)
+				s = s.copy();
+			for (int k = 0; k < rowIDs.length; k++) {
+				long rowID = rowIDs[k];
+				Building b = buildings.get(k);
+				if (s != null)
+					s.put(rowID, b.getLat_(), b.getLong_());
+				if (t.idsLoaded)
+					t.put(rowID, t.mainLoaded ? mainRow(rowID, b) : null);
+			}
+			publish(t, s);
+			for (int k = 0; k < rowIDs.length; k++)
+				details.put(rowIDs[k], fullRow(rowIDs[k], buildings.get(k)));
+			return rowIDs;
 		}
-		return (rID != -1);
 	}
 
 	// updates the database and cache immediately with new values
 	public static boolean update(long rowID, Building updated) {
-		cacheIDs();
-		makeWritable();
-		int i = IDs.indexOf(rowID);
-		if (i < 0)
-			return false;
-		boolean success = adapter.updateBuilding(rowID, updated.getName(),
-				updated.getLat_(), updated.getLong_(),
-				updated.getDescription(), updated.getImageURL());
-		if (mainDataCached && success)
-			cache.set(i, updated);
-		close();
-		return success;
+		ids();
+		synchronized (lock) {
+			Table t = table;
+			if (t.idsLoaded && t.slots.get(rowID) < 0)
+				return false;
+			initialize();
+			boolean success = adapter.updateBuilding(rowID, updated.getName(),
+					updated.getLat_(), updated.getLong_(), updated
+							.getDescription(), updated.getImageURL());
+			if (!success)
+				return false;
+
+			if (t.mainLoaded) {
+				t = t.copy();
+				t.put(rowID, mainRow(rowID, updated));
+			}
+			SpatialIndex s = spatial;
+			if (s != null) {
+				s = s.copy();
+				s.put(rowID, updated.getLat_(), updated.getLong_());
+			}
+			publish(t, s);
+			details.put(rowID, fullRow(rowID, updated));
+			return true;
+		}
 	}
 
 	public static boolean delete(long rowID) {
-		makeWritable();
-		if (adapter.deleteBuilding(rowID)) {
-			int i = getIDs().indexOf(rowID);
-			if (i >= 0) {
-				if (mainDataCached)
-					cache.remove(i);
-				IDs.remove(i);
+		synchronized (lock) {
+			initialize();
+			if (!adapter.deleteBuilding(rowID))
+				return false;
+
+			Table t = table;
+			if (t.idsLoaded) {
+				t = t.copy();
+				t.remove(rowID);
+			}
+			SpatialIndex s = spatial;
+			if (s != null) {
+				s = s.copy();
+				s.remove(rowID);
 			}
+			publish(t, s);
+			details.remove(rowID);
 			return true;
-		} else
-			return false;
+		}
 	}
 
 	public static void cacheIDs() {
-		if (idsCached)
-			return;
-		IDs = new ArrayList<Long>();
-		makeReadable();
-		Cursor c = adapter.getCursor(new String[] { DBAdapter.COLUMN_ID });
-		if (c.moveToFirst()) {
-			do {
-				IDs.add(c.getLong(c.getColumnIndex(DBAdapter.COLUMN_ID)));
-			} while (c.moveToNext());
-		}
-		idsCached = true;
-		c.close();
+		ids();
 	}
 
 	public static void cacheMainData() {
-		if (mainDataCached)
-			return;
-		resetBuildingCache(); // ensures IDs are cached
-		makeReadable();
-		Cursor c = adapter.getCursor(new String[] { DBAdapter.COLUMN_NAME,
-				DBAdapter.COLUMN_LATITUDE, DBAdapter.COLUMN_LONGITUDE });
-		if (c.moveToFirst()) {
-			do {
-				Building current = new Building(c.getLong(c
-						.getColumnIndex(DBAdapter.COLUMN_ID)), c.getInt(c
-						.getColumnIndex(DBAdapter.COLUMN_LATITUDE)), c.getInt(c
-						.getColumnIndex(DBAdapter.COLUMN_LONGITUDE)), c
-						.getString(c.getColumnIndex(DBAdapter.COLUMN_NAME)), c
-						.getString(c
-								.getColumnIndex(DBAdapter.COLUMN_DESCRIPTION)),
-						c.getString(c.getColumnIndex(DBAdapter.COLUMN_URL)));
-				cache.add(current);
-				cached.add(false);
-			} while (c.moveToNext());
+		mainData();
+	}
+
+	private static Table ids() {
+		Table t = table;
+		if (t.idsLoaded)
+			return t;
+		synchronized (lock) {
+			t = table;
+			if (t.idsLoaded)
+				return t;
+			initialize();
+			Cursor c = adapter.getCursor(DBAdapter.PROJECTION_ID);
+			t = new Table(c.getCount(), true, false);
+			int idColumn = c.getColumnIndex(DBAdapter.COLUMN_ID);
+			while (c.moveToNext())
+				t.put(c.getLong(idColumn), null);
+			c.close();
+			table = t;
+			return t;
 		}
-		mainDataCached = true;
-		c.close();
-		close();
+	}
 
+	private static Table mainData() {
+		Table t = table;
+		if (t.mainLoaded)
+			return t;
+		synchronized (lock) {
+			t = table;
+			if (t.mainLoaded)
+				return t;
+			initialize();
+			Cursor c = adapter.getCursor(DBAdapter.PROJECTION_MAIN);
+			t = new Table(c.getCount(), true, true);
+			int idColumn = c.getColumnIndex(DBAdapter.COLUMN_ID);
+			int nameColumn = c.getColumnIndex(DBAdapter.COLUMN_NAME);
+			int latColumn = c.getColumnIndex(DBAdapter.COLUMN_LATITUDE);
+			int lonColumn = c.getColumnIndex(DBAdapter.COLUMN_LONGITUDE);
+			while (c.moveToNext()) {
+				long id = c.getLong(idColumn);
+				// description and url are loaded lazily by cacheBuilding()
+				t.put(id, new Building(id, c.getInt(latColumn), c
+						.getInt(lonColumn), c.getString(nameColumn), null,
+						null));
+			}
+			c.close();
+			table = t;
+			return t;
+		}
 	}
 
-	public static int cacheBuilding(long rowID) {
-		if (!mainDataCached)
-			cacheMainData();
-		int i = IDs.indexOf(rowID);
-		if (cached.get(i))
-			return i;
-		makeReadable();
-		String[] columnsToRead;
-		columnsToRead = new String[] { DBAdapter.COLUMN_DESCRIPTION,
-				DBAdapter.COLUMN_URL };
-		Cursor c = adapter.getCursor(columnsToRead, rowID);
-		if (!c.moveToFirst())
-			throw new RuntimeException(
-					"Cannot cache building which doesnt exist");
-		if (i < 0)
-			throw new RuntimeException(
-					"error, discrepancy between database and memory cache");
+	// returns the building with its description and url loaded, shared
+	// with other callers so it must not be changed. Concurrent misses for
+	// the same building share a single query.
+	public static Building cacheBuilding(final long rowID) {
+		Building b = details.get(rowID);
+		if (b != null)
+			return b;
 
-		Building b = cache.get(i);
+		FutureTask<Building> task = new FutureTask<Building>(
+				new Callable<Building>() {
+					public Building call() {
+						return loadBuilding(rowID);
+					}
+				});
+		FutureTask<Building> running = loading.putIfAbsent(rowID, task);
+		if (running == null) {
+			running = task;
+			try {
+				task.run();
+			} finally {
+				loading.remove(rowID, task);
+			}
+		}
 
-		b.setDescription(c.getString(c
-				.getColumnIndex(DBAdapter.COLUMN_DESCRIPTION)));
-		b.setImageURL(c.getString(c.getColumnIndex(DBAdapter.COLUMN_URL)));
-		c.close();
-		close();
-		cached.set(i, true);
-		return i;
+		try {
+			return running.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new RuntimeException(cause);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("interrupted loading building "
+					+ rowID);
+		}
 	}
 
-	private static void resetBuildingCache() {
-		int restaurants = getIDs().size();
-		cache = new ArrayList<Building>();
-		cache.ensureCapacity(restaurants);
-		cached = new ArrayList<Boolean>();
-		cached.ensureCapacity(restaurants);
-		mainDataCached = false;
+	// row IDs of the buildings that have an image, with their urls added to
+	// urls in the same order. One query that leaves the detail cache alone,
+	// for queuing every image at once.
+	public static long[] getImageURLs(List<String> urls) {
+		initialize();
+		Cursor c = adapter.getCursor(DBAdapter.PROJECTION_IMAGE);
+		long[] ids = new long[c.getCount()];
+		int n = 0;
+		while (c.moveToNext() && n < ids.length) {
+			if (c.isNull(1))
+				continue;
+			ids[n++] = c.getLong(0);
+			urls.add(c.getString(1));
+		}
+		c.close();
+		if (n == ids.length)
+			return ids;
+		long[] trimmed = new long[n];
+		System.arraycopy(ids, 0, trimmed, 0, n);
+		return trimmed;
 	}
 
-	private static void initialize() {
-		if (adapter == null) {
-			adapter = new DBAdapter(Main.applicationContext);
-			state = CLOSED;
+	// returns the buildings with their description and url loaded, in the
+	// order asked for and null where there is no such building. Those not
+	// cached are read with one IN (...) query per BATCH_SIZE buildings.
+	public static Building[] cacheBuildings(long[] rowIDs) {
+		Building[] found = new Building[rowIDs.length];
+		long[] missing = new long[rowIDs.length];
+		int n = 0;
+		for (int k = 0; k < rowIDs.length; k++) {
+			found[k] = details.get(rowIDs[k]);
+			if (found[k] == null)
+				missing[n++] = rowIDs[k];
 		}
-	}
+		if (n == 0)
+			return found;
 
-	private static void makeWritable() {
-		initialize();
-		switch (state) {
-		case READABLE:
-			adapter.close();
-			adapter.openWritable();
-			state = WRITABLE;
-			return;
-		case WRITABLE:
-			return;
-		case CLOSED:
-			adapter.openWritable();
-			state = WRITABLE;
-			return;
+		int seen = generation;
+		Table t = mainData();
+		ArrayList<Building> loaded = new ArrayList<Building>(n);
+		LongIntMap index = new LongIntMap(n);
+		for (int from = 0; from < n; from += BATCH_SIZE) {
+			long[] batch = new long[Math.min(BATCH_SIZE, n - from)];
+			System.arraycopy(missing, from, batch, 0, batch.length);
+			Cursor c = adapter.getCursor(BATCH_PROJECTION, batch);
+			while (c.moveToNext()) {
+				long id = c.getLong(0);
+				int i = t.slots.get(id);
+				if (i < 0 || index.containsKey(id))
+					continue;
+				Building main = t.rows[i];
+				Building b = new Building(id, main.getLat_(), main
+						.getLong_(), main.getName(), c.getString(1), c
+						.getString(2));
+				details.put(id, b);
+				index.put(id, loaded.size());
+				loaded.add(b);
+			}
+			c.close();
 		}
-	}
 
-	private static void makeReadable() {
-		initialize();
-		switch (state) {
-		case READABLE:
-			return;
-		case WRITABLE:
-			adapter.close();
-			adapter.openReadable();
-			state = READABLE;
-			return;
-		case CLOSED:
-			adapter.openReadable();
-			state = READABLE;
-			return;
+		// as in loadBuilding(), don't keep what a write may have changed
+		if (generation != seen)
+			for (int j = 0; j < loaded.size(); j++)
+				details.remove(loaded.get(j).getID(), loaded.get(j));
+
+		for (int k = 0; k < rowIDs.length; k++) {
+			if (found[k] != null)
+				continue;
+			int j = index.get(rowIDs[k]);
+			if (j >= 0)
+				found[k] = loaded.get(j);
 		}
+		return found;
 	}
 
-	// closes the underlying database adapter
-	// no read/writes are to be performed in the
-	// near future
-	public static void close() {
-		initialize();
-		switch (state) {
-		case READABLE:
-			adapter.close();
-			state = CLOSED;
-			return;
-		case WRITABLE:
-			adapter.close();
-			state = CLOSED;
-			return;
-		case CLOSED:
-			return;
+	private static Building loadBuilding(long rowID) {
+		int seen = generation;
+		Building main = mainData().row(rowID);
+		Cursor c = adapter.getCursor(DBAdapter.PROJECTION_DETAILS, rowID);
+		if (!c.moveToFirst()) {
+			c.close();
+			throw new RuntimeException(
+					"Cannot cache building which doesnt exist");
 		}
+		Building b = new Building(rowID, main.getLat_(), main.getLong_(),
+				main.getName(), c.getString(c
+						.getColumnIndex(DBAdapter.COLUMN_DESCRIPTION)), c
+						.getString(c.getColumnIndex(DBAdapter.COLUMN_URL)));
+		c.close();
+
+		// A write during the query may have made b stale, return it to
+		// this caller but don't keep it
+		details.put(rowID, b);
+		if (generation != seen)
+			details.remove(rowID, b);
+		return b;
+	}
+
+	// publishes the result of a write, called with the lock held
+	private static void publish(Table t, SpatialIndex s) {
+		generation++;
+		table = t;
+		spatial = s;
+	}
+
+	private static Building mainRow(long rowID, Building b) {
+		return new Building(rowID, b.getLat_(), b.getLong_(), b.getName(),
+				null, null);
+	}
+
+	private static Building fullRow(long rowID, Building b) {
+		return new Building(rowID, b.getLat_(), b.getLong_(), b.getName(), b
+				.getDescription(), b.getImageURL());
+	}
+
+	private static void initialize() {
+		if (adapter == null)
+			adapter = DBAdapter.getInstance(Main.applicationContext);
 	}
 
 	public static Cursor fetchAllBuildingsCursor() {
+		initialize();
 		return adapter.fetchAllBuildingsSortedCursor();
 	}
 
@@ -0,0 +1,234 @@
+/**
+ * Android Campus Maps
+ *  http://code.google.com/p/vuphone/
+ *
+ * Copyright 2009 VUPhone Team
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package edu.vanderbilt.vuphone.android.campusmaps.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Buildings with their description and url loaded, by row ID. Descriptions
+ * can be long paragraphs, so the cache is bounded by the bytes those strings
+ * take rather than by the number of buildings, and the least recently used
+ * buildings are dropped first.
+ *
+ * The cache is split into segments by row ID, each with its own lock, LRU
+ * order and share of the byte limit, so threads reading different buildings
+ * rarely wait for each other.
+ */
+public class DetailCache {
+
+	/**
+	 * The 235 buildings in buildings.bin measure about 210 KB by sizeOf(),
+	 * with at most 60 KB in any one segment. Each segment gets a quarter of
+	 * this limit, 96 KB, so browsing the whole campus evicts nothing and
+	 * the feed has room to grow.
+	 */
+	public static final int DEFAULT_MAX_BYTES = 384 * 1024;
+
+	private static final int SEGMENTS = 4;
+
+	// Approximate cost of an entry besides its characters: the map entry,
+	// the Long key, the Building and two String headers
+	private static final int ENTRY_OVERHEAD = 128;
+
+	private final Segment[] segments_ = new Segment[SEGMENTS];
+
+	private static class Segment {
+		final LinkedHashMap<Long, Building> buildings_ = new LinkedHashMap<Long, Building>(
+				16, 0.75f, true);
+		int maxBytes_;
+		int bytes_ = 0;
+		int hits_ = 0;
+		int misses_ = 0;
+		int evictions_ = 0;
+
+		Segment(int maxBytes) {
+			maxBytes_ = maxBytes;
+		}
+
+		// Called with the segment locked
+		void trimTo(int maxBytes) {
+			Iterator<Map.Entry<Long, Building>> it = buildings_.entrySet()
+					.iterator();
+			while (bytes_ > maxBytes && it.hasNext()) {
+				bytes_ -= sizeOf(it.next().getValue());
+				it.remove();
+				evictions_++;
+			}
+		}
+	}
+
+	public DetailCache() {
+		this(DEFAULT_MAX_BYTES);
+	}
+
+	public DetailCache(int maxBytes) {
+		for (int i = 0; i < SEGMENTS; i++)
+			segments_[i] = new Segment(maxBytes / SEGMENTS);
+	}
+
+	/**
+	 * @return the cached building, or null
+	 */
+	public Building get(long rowID) {
+		Segment s = segment(rowID);
+		synchronized (s) {
+			Building b = s.buildings_.get(rowID);
+			if (b != null)
+				s.hits_++;
+			else
+				s.misses_++;
+			return b;
+		}
+	}
+
+	/**
+	 * Caches a building, dropping the least recently used ones if the limit
+	 * is exceeded
+	 */
+	public void put(long rowID, Building b) {
+		Segment s = segment(rowID);
+		synchronized (s) {
+			Building old = s.buildings_.put(rowID, b);
+			if (old != null)
+				s.bytes_ -= sizeOf(old);
+			s.bytes_ += sizeOf(b);
+			s.trimTo(s.maxBytes_);
+		}
+	}
+
+	public void remove(long rowID) {
+		Segment s = segment(rowID);
+		synchronized (s) {
+			Building old = s.buildings_.remove(rowID);
+			if (old != null)
+				s.bytes_ -= sizeOf(old);
+		}
+	}
+
+	/**
+	 * Removes the building only if it is still the one cached
+	 */
+	public void remove(long rowID, Building b) {
+		Segment s = segment(rowID);
+		synchronized (s) {
+			Long key = rowID;
+			if (s.buildings_.get(key) == b) {
+				s.buildings_.remove(key);
+				s.bytes_ -= sizeOf(b);
+			}
+		}
+	}
+
+	public void clear() {
+		for (Segment s : segments_) {
+			synchronized (s) {
+				s.buildings_.clear();
+				s.bytes_ = 0;
+			}
+		}
+	}
+
+	/**
+	 * Drops the least recently used buildings until at most maxBytes are
+	 * held. Dropped details are read from the database again when needed.
+	 */
+	public void trimTo(int maxBytes) {
+		for (Segment s : segments_) {
+			synchronized (s) {
+				s.trimTo(maxBytes / SEGMENTS);
+			}
+		}
+	}
+
+	/**
+	 * Called when the system is low on memory
+	 */
+	public void onLowMemory() {
+		trimTo(0);
+	}
+
+	public int getHitCount() {
+		int hits = 0;
+		for (Segment s : segments_) {
+			synchronized (s) {
+				hits += s.hits_;
+			}
+		}
+		return hits;
+	}
+
+	public int getMissCount() {
+		int misses = 0;
+		for (Segment s : segments_) {
+			synchronized (s) {
+				misses += s.misses_;
+			}
+		}
+		return misses;
+	}
+
+	/** @return the number of buildings dropped to stay within the limit */
+	public int getEvictionCount() {
+		int evictions = 0;
+		for (Segment s : segments_) {
+			synchronized (s) {
+				evictions += s.evictions_;
+			}
+		}
+		return evictions;
+	}
+
+	/** @return hits / lookups, or 0 before the first lookup */
+	public float getHitRate() {
+		int hits = getHitCount();
+		int lookups = hits + getMissCount();
+		return lookups == 0 ? 0 : (float) hits / lookups;
+	}
+
+	public int getSizeBytes() {
+		int bytes = 0;
+		for (Segment s : segments_) {
+			synchronized (s) {
+				bytes += s.bytes_;
+			}
+		}
+		return bytes;
+	}
+
+	public int size() {
+		int size = 0;
+		for (Segment s : segments_) {
+			synchronized (s) {
+				size += s.buildings_.size();
+			}
+		}
+		return size;
+	}
+
+	private Segment segment(long rowID) {
+		return segments_[(int) (rowID ^ (rowID >>> 32)) & (SEGMENTS - 1)];
+	}
+
+	private static int sizeOf(Building b) {
+		int chars = 0;
+		if (b.getDescription() != null)
+			chars += b.getDescription().length();
+		if (b.getImageURL() != null)
+			chars += b.getImageURL().length();
+		return ENTRY_OVERHEAD + chars * 2;
+	}
+}
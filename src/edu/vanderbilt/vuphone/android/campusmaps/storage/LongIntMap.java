@@ -0,0 +1,172 @@
+/**
+ * Android Campus Maps
+ *  http://code.google.com/p/vuphone/
+ *
+ * Copyright 2009 VUPhone Team
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package edu.vanderbilt.vuphone.android.campusmaps.storage;
+
+/**
+ * An open-addressing hash map from primitive long keys to non-negative int
+ * values. Lookups never box or allocate. Used to map building row IDs to
+ * their slot in the in-memory caches.
+ */
+public class LongIntMap {
+
+	/** Returned by get() and remove() when a key is not present */
+	public static final int NOT_FOUND = -1;
+
+	private static final int MIN_CAPACITY = 16;
+
+	private long[] keys_;
+	// Stored as value + 1 so that 0 marks an empty bucket
+	private int[] values_;
+	private int size_;
+	private int mask_;
+
+	public LongIntMap() {
+		this(MIN_CAPACITY);
+	}
+
+	/**
+	 * @param expected
+	 *            number of entries the map should hold without resizing
+	 */
+	public LongIntMap(int expected) {
+		allocate(capacityFor(expected));
+	}
+
+	public int size() {
+		return size_;
+	}
+
+	/**
+	 * @return the value mapped to key, or NOT_FOUND
+	 */
+	public int get(long key) {
+		int i = hash(key) & mask_;
+		while (values_[i] != 0) {
+			if (keys_[i] == key)
+				return values_[i] - 1;
+			i = (i + 1) & mask_;
+		}
+		return NOT_FOUND;
+	}
+
+	public boolean containsKey(long key) {
+		return get(key) != NOT_FOUND;
+	}
+
+	/**
+	 * Maps key to value, replacing any previous mapping
+	 *
+	 * @param value
+	 *            must be non-negative
+	 * @return the previous value, or NOT_FOUND
+	 */
+	public int put(long key, int value) {
+		if (value < 0)
+			throw new IllegalArgumentException("value must be non-negative");
+
+		int i = hash(key) & mask_;
+		while (values_[i] != 0) {
+			if (keys_[i] == key) {
+				int old = values_[i] - 1;
+				values_[i] = value + 1;
+				return old;
+			}
+			i = (i + 1) & mask_;
+		}
+
+		keys_[i] = key;
+		values_[i] = value + 1;
+		if (++size_ > (mask_ + 1) * 3 / 4)
+			rehash((mask_ + 1) * 2);
+		return NOT_FOUND;
+	}
+
+	/**
+	 * Removes the mapping for key
+	 *
+	 * @return the removed value, or NOT_FOUND
+	 */
+	public int remove(long key) {
+		int i = hash(key) & mask_;
+		while (values_[i] != 0) {
+			if (keys_[i] == key) {
+				int old = values_[i] - 1;
+				shiftBack(i);
+				size_--;
+				return old;
+			}
+			i = (i + 1) & mask_;
+		}
+		return NOT_FOUND;
+	}
+
+	public void clear() {
+		java.util.Arrays.fill(values_, 0);
+		size_ = 0;
+	}
+
+	/**
+	 * Closes the gap left at bucket i so that later probes still find every
+	 * key (backward shift deletion, no tombstones needed).
+	 */
+	private void shiftBack(int i) {
+		int j = i;
+		while (true) {
+			j = (j + 1) & mask_;
+			if (values_[j] == 0)
+				break;
+			int home = hash(keys_[j]) & mask_;
+			// Move j into the gap only if its home bucket is not between the
+			// gap and j (cyclically)
+			if (i <= j ? (home <= i || home > j) : (home <= i && home > j)) {
+				keys_[i] = keys_[j];
+				values_[i] = values_[j];
+				i = j;
+			}
+		}
+		values_[i] = 0;
+	}
+
+	private void rehash(int capacity) {
+		long[] oldKeys = keys_;
+		int[] oldValues = values_;
+		allocate(capacity);
+		size_ = 0;
+		for (int i = 0; i < oldValues.length; i++)
+			if (oldValues[i] != 0)
+				put(oldKeys[i], oldValues[i] - 1);
+	}
+
+	private void allocate(int capacity) {
+		keys_ = new long[capacity];
+		values_ = new int[capacity];
+		mask_ = capacity - 1;
+	}
+
+	private static int capacityFor(int expected) {
+		int capacity = MIN_CAPACITY;
+		while (capacity * 3 / 4 < expected)
+			capacity <<= 1;
+		return capacity;
+	}
+
+	private static int hash(long key) {
+		// 64-bit mix so that sequential row IDs spread across buckets
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		return (int) key;
+	}
+}
@@ -0,0 +1,319 @@
+/**
+ * Android Campus Maps
+ *  http://code.google.com/p/vuphone/
+ *
+ * Copyright 2009 VUPhone Team
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+package edu.vanderbilt.vuphone.android.campusmaps.storage;
+
+/**
+ * A uniform grid over building locations, in microdegrees. Answers "which
+ * buildings are inside this box" and "which buildings are closest to this
+ * point" by only looking at nearby cells instead of every building.
+ *
+ * Points are kept in parallel arrays addressed by slot. Each grid cell holds
+ * the slots of the points inside it.
+ */
+public class SpatialIndex {
+
+	/** About 110m of latitude, a few buildings per cell on campus */
+	public static final int DEFAULT_CELL_SIZE = 1000;
+
+	private final int cellSize_;
+
+	private long[] ids_ = new long[16];
+	private int[] lats_ = new int[16];
+	private int[] lons_ = new int[16];
+	private int count_ = 0;
+	private final LongIntMap slotOf_ = new LongIntMap();
+
+	// Cell key -> cell number, and per cell the slots it contains
+	private final LongIntMap cellOf_ = new LongIntMap();
+	private int[][] cellSlots_ = new int[16][];
+	private int[] cellSizes_ = new int[16];
+	private int cellCount_ = 0;
+
+	// Bounds of every cell ever created, used to stop nearest() searches
+	private int minCellX_ = Integer.MAX_VALUE;
+	private int maxCellX_ = Integer.MIN_VALUE;
+	private int minCellY_ = Integer.MAX_VALUE;
+	private int maxCellY_ = Integer.MIN_VALUE;
+
+	public SpatialIndex() {
+		this(DEFAULT_CELL_SIZE);
+	}
+
+	/**
+	 * @param cellSize
+	 *            width and height of a grid cell in microdegrees
+	 */
+	public SpatialIndex(int cellSize) {
+		if (cellSize <= 0)
+			throw new IllegalArgumentException("cellSize must be positive");
+		cellSize_ = cellSize;
+	}
+
+	/**
+	 * @return an independent index over the same points, for changing
+	 *         without disturbing readers of this one
+	 */
+	public SpatialIndex copy() {
+		SpatialIndex index = new SpatialIndex(cellSize_);
+		for (int i = 0; i < count_; i++)
+			index.put(ids_[i], lats_[i], lons_[i]);
+		return index;
+	}
+
+	public int size() {
+		return count_;
+	}
+
+	public boolean contains(long id) {
+		return slotOf_.containsKey(id);
+	}
+
+	/**
+	 * Adds a building, or moves it if it is already indexed
+	 */
+	public void put(long id, int lat, int lon) {
+		int slot = slotOf_.get(id);
+		if (slot >= 0) {
+			if (cellKey(lat, lon) == cellKey(lats_[slot], lons_[slot])) {
+				lats_[slot] = lat;
+				lons_[slot] = lon;
+				return;
+			}
+			remove(id);
+		}
+
+		if (count_ == ids_.length) {
+			int capacity = count_ * 2;
+			ids_ = grow(ids_, capacity);
+			lats_ = grow(lats_, capacity);
+			lons_ = grow(lons_, capacity);
+		}
+		slot = count_++;
+		ids_[slot] = id;
+		lats_[slot] = lat;
+		lons_[slot] = lon;
+		slotOf_.put(id, slot);
+		addToCell(cell(lat, lon, true), slot);
+	}
+
+	/**
+	 * @return true if the building was indexed
+	 */
+	public boolean remove(long id) {
+		int slot = slotOf_.remove(id);
+		if (slot < 0)
+			return false;
+
+		removeFromCell(cell(lats_[slot], lons_[slot], false), slot);
+
+		// Move the last point into the freed slot
+		int last = --count_;
+		if (slot != last) {
+			int lastCell = cell(lats_[last], lons_[last], false);
+			removeFromCell(lastCell, last);
+			ids_[slot] = ids_[last];
+			lats_[slot] = lats_[last];
+			lons_[slot] = lons_[last];
+			slotOf_.put(ids_[slot], slot);
+			addToCell(lastCell, slot);
+		}
+		return true;
+	}
+
+	/**
+	 * Finds every building inside a bounding box, edges included
+	 *
+	 * @return row IDs in no particular order
+	 */
+	public long[] query(int minLat, int minLon, int maxLat, int maxLon) {
+		long[] found = new long[16];
+		int n = 0;
+
+		int x0 = cellX(minLon), x1 = cellX(maxLon);
+		int y0 = cellY(minLat), y1 = cellY(maxLat);
+		for (int x = Math.max(x0, minCellX_); x <= Math.min(x1, maxCellX_); x++) {
+			for (int y = Math.max(y0, minCellY_); y <= Math.min(y1, maxCellY_); y++) {
+				int c = cellOf_.get(key(x, y));
+				if (c < 0)
+					continue;
+				int[] slots = cellSlots_[c];
+				for (int j = 0; j < cellSizes_[c]; j++) {
+					int s = slots[j];
+					if (lats_[s] >= minLat && lats_[s] <= maxLat
+							&& lons_[s] >= minLon && lons_[s] <= maxLon) {
+						if (n == found.length)
+							found = grow(found, n * 2);
+						found[n++] = ids_[s];
+					}
+				}
+			}
+		}
+
+		return trim(found, n);
+	}
+
+	/**
+	 * Finds the k buildings closest to a point. Distance uses longitude
+	 * scaled by cos(latitude), which is accurate at campus scale.
+	 *
+	 * @return up to k row IDs, nearest first
+	 */
+	public long[] nearest(int lat, int lon, int k) {
+		if (k <= 0 || count_ == 0)
+			return new long[0];
+		k = Math.min(k, count_);
+
+		double scale = Math.cos(Math.toRadians(lat / 1E6));
+		// Sorted ascending by distance
+		int[] best = new int[k];
+		double[] bestDist = new double[k];
+		int found = 0;
+
+		int cx = cellX(lon), cy = cellY(lat);
+		int maxRing = Math.max(Math.max(Math.abs(cx - minCellX_), Math
+				.abs(cx - maxCellX_)), Math.max(Math.abs(cy - minCellY_),
+				Math.abs(cy - maxCellY_)));
+
+		for (int r = 0; r <= maxRing; r++) {
+			// No point in ring r can be closer than this
+			double bound = Math.max(0, r - 1) * (double) cellSize_ * scale;
+			if (found == k && bound * bound > bestDist[k - 1])
+				break;
+
+			for (int x = cx - r; x <= cx + r; x++) {
+				boolean edge = (x == cx - r || x == cx + r);
+				for (int y = cy - r; y <= cy + r; y += edge ? 1 : 2 * r) {
+					int c = cellOf_.get(key(x, y));
+					if (c >= 0)
+						found = scanCell(c, lat, lon, scale, best, bestDist,
+								found);
+					if (r == 0)
+						break;
+				}
+			}
+		}
+
+		long[] ids = new long[found];
+		for (int i = 0; i < found; i++)
+			ids[i] = ids_[best[i]];
+		return ids;
+	}
+
+	// Inserts candidates from one cell into the sorted best list
+	private int scanCell(int c, int lat, int lon, double scale, int[] best,
+			double[] bestDist, int found) {
+		int k = best.length;
+		int[] slots = cellSlots_[c];
+		for (int j = 0; j < cellSizes_[c]; j++) {
+			int s = slots[j];
+			double dy = lats_[s] - lat;
+			double dx = (lons_[s] - lon) * scale;
+			double d = dx * dx + dy * dy;
+			if (found == k && d >= bestDist[k - 1])
+				continue;
+
+			int i = (found < k) ? found++ : k - 1;
+			while (i > 0 && bestDist[i - 1] > d) {
+				best[i] = best[i - 1];
+				bestDist[i] = bestDist[i - 1];
+				i--;
+			}
+			best[i] = s;
+			bestDist[i] = d;
+		}
+		return found;
+	}
+
+	private int cell(int lat, int lon, boolean create) {
+		int x = cellX(lon), y = cellY(lat);
+		long key = key(x, y);
+		int c = cellOf_.get(key);
+		if (c >= 0 || !create)
+			return c;
+
+		if (cellCount_ == cellSizes_.length) {
+			int[][] grown = new int[cellCount_ * 2][];
+			System.arraycopy(cellSlots_, 0, grown, 0, cellCount_);
+			cellSlots_ = grown;
+			cellSizes_ = grow(cellSizes_, cellCount_ * 2);
+		}
+		c = cellCount_++;
+		cellSlots_[c] = new int[4];
+		cellOf_.put(key, c);
+
+		minCellX_ = Math.min(minCellX_, x);
+		maxCellX_ = Math.max(maxCellX_, x);
+		minCellY_ = Math.min(minCellY_, y);
+		maxCellY_ = Math.max(maxCellY_, y);
+		return c;
+	}
+
+	private void addToCell(int c, int slot) {
+		if (cellSizes_[c] == cellSlots_[c].length)
+			cellSlots_[c] = grow(cellSlots_[c], cellSizes_[c] * 2);
+		cellSlots_[c][cellSizes_[c]++] = slot;
+	}
+
+	private void removeFromCell(int c, int slot) {
+		int[] slots = cellSlots_[c];
+		int n = cellSizes_[c];
+		for (int j = 0; j < n; j++) {
+			if (slots[j] == slot) {
+				slots[j] = slots[n - 1];
+				cellSizes_[c] = n - 1;
+				return;
+			}
+		}
+	}
+
+	private long cellKey(int lat, int lon) {
+		return key(cellX(lon), cellY(lat));
+	}
+
+	private int cellX(int lon) {
+		return floorDiv(lon, cellSize_);
+	}
+
+	private int cellY(int lat) {
+		return floorDiv(lat, cellSize_);
+	}
+
+	private static long key(int x, int y) {
+		return ((long) x << 32) | (y & 0xffffffffL);
+	}
+
+	private static int floorDiv(int a, int b) {
+		int q = a / b;
+		return (a % b != 0 && a < 0) ? q - 1 : q;
+	}
+
+	private static int[] grow(int[] a, int capacity) {
+		int[] grown = new int[capacity];
+		System.arraycopy(a, 0, grown, 0, a.length);
+		return grown;
+	}
+
+	private static long[] grow(long[] a, int capacity) {
+		long[] grown = new long[capacity];
+		System.arraycopy(a, 0, grown, 0, a.length);
+		return grown;
+	}
+
+	private static long[] trim(long[] a, int n) {
+		long[] trimmed = new long[n];
+		System.arraycopy(a, 0, trimmed, 0, n);
+		return trimmed;
+	}
+}
@@ -0,0 +1,181 @@
+/**
+ * Android Campus Maps
+ *  http://code.google.com/p/vuphone/
+ *
+ * Copyright 2009 VUPhone Team
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package edu.vanderbilt.vuphone.android.campusmaps.tools;
+
+import java.io.InputStream;
+
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+import edu.vanderbilt.vuphone.android.campusmaps.Main;
+import edu.vanderbilt.vuphone.android.campusmaps.storage.Building;
+
+/**
+ * Streams buildings.xml one &lt;feature&gt; at a time. Unlike
+ * XMLTools.parseXML no Document or Properties is ever built, so memory use
+ * stays flat no matter how many features the file holds.
+ *
+ * tools/BuildingPackCompiler runs it on the desktop as a plain SAX handler,
+ * so apart from parse() it must not use Android or the maps library.
+ */
+public class BuildingXMLParser extends DefaultHandler {
+
+	/**
+	 * Receives each building as soon as its &lt;feature&gt; element closes
+	 */
+	public interface Listener {
+		public void onBuilding(Building b);
+	}
+
+	private static final String FEATURE = "feature";
+	private static final String COORDINATES = "coordinates";
+	private static final String NAME = "FACILITY_NAME";
+	private static final String URL = "FACILITY_URL";
+	private static final String REMARKS = "FACILITY_REMARKS";
+
+	private static final String URL_PREFIX = "http://www.vanderbilt.edu/map/";
+
+	private Listener listener_;
+
+	// Reused across every element, so character data never allocates per
+	// element beyond the final String.
+	private StringBuilder text_ = new StringBuilder(256);
+	private boolean inFeature_ = false;
+	private String coordinates_;
+	private String name_;
+	private String url_;
+	private String remarks_;
+
+	// Index of the current feature, used as the building id just like the
+	// old DOM loader did.
+	private int index_ = -1;
+	private int count_ = 0;
+
+	public BuildingXMLParser(Listener l) {
+		listener_ = l;
+	}
+
+	/**
+	 * Parses the stream, calling the listener for every valid building. The
+	 * stream is closed when done.
+	 *
+	 * @param in
+	 * @param l
+	 * @return number of buildings emitted, or -1 if the XML could not be
+	 *         parsed
+	 */
+	public static int parse(InputStream in, Listener l) {
+		if (in == null)
+			return -1;
+
+		BuildingXMLParser handler = new BuildingXMLParser(l);
+		try {
+			SAXParser sp = SAXParserFactory.newInstance().newSAXParser();
+			sp.parse(in, handler);
+			return handler.count_;
+		} catch (Exception e) {
+			Main.trace("Could not parse XML! " + e.getMessage());
+			return -1;
+		} finally {
+			try {
+				in.close();
+			} catch (Exception e) {
+				// nothing left to do
+			}
+		}
+	}
+
+	@Override
+	public void startElement(String uri, String localName, String qName,
+			Attributes attributes) {
+		String tag = tagName(localName, qName);
+		if (FEATURE.equals(tag)) {
+			inFeature_ = true;
+			index_++;
+			coordinates_ = null;
+			name_ = null;
+			url_ = null;
+			remarks_ = null;
+		}
+		text_.setLength(0);
+	}
+
+	@Override
+	public void characters(char[] ch, int start, int length) {
+		if (inFeature_)
+			text_.append(ch, start, length);
+	}
+
+	@Override
+	public void endElement(String uri, String localName, String qName) {
+		if (!inFeature_)
+			return;
+
+		String tag = tagName(localName, qName);
+		if (FEATURE.equals(tag)) {
+			inFeature_ = false;
+			emit();
+		} else if (COORDINATES.equals(tag))
+			coordinates_ = text_.toString();
+		else if (NAME.equals(tag))
+			name_ = text_.toString();
+		else if (URL.equals(tag))
+			url_ = text_.toString();
+		else if (REMARKS.equals(tag))
+			remarks_ = text_.toString();
+
+		text_.setLength(0);
+	}
+
+	/**
+	 * Converts the fields of the finished feature into a Building
+	 */
+	private void emit() {
+		if (coordinates_ == null || name_ == null)
+			return;
+
+		// Only the first "x,y" pair is used
+		String c = coordinates_.trim();
+		int space = c.indexOf(' ');
+		if (space >= 0)
+			c = c.substring(0, space);
+		int comma = c.indexOf(',');
+		if (comma < 0)
+			return;
+
+		int[] e6;
+		try {
+			e6 = Tools.EPSG900913ToE6(Double.parseDouble(c.substring(0, comma)),
+					Double.parseDouble(c.substring(comma + 1)));
+		} catch (NumberFormatException e) {
+			return;
+		}
+
+		String url = url_ == null ? null : URL_PREFIX + url_.toLowerCase();
+
+		listener_.onBuilding(new Building(index_, e6[0], e6[1], Tools
+				.titleCase(name_), remarks_, url));
+		count_++;
+	}
+
+	private static String tagName(String localName, String qName) {
+		return (localName == null || localName.length() == 0) ? qName
+				: localName;
+	}
+}
@@ -0,0 +1,262 @@
+/**
+ * Android Campus Maps
+ *  http://code.google.com/p/vuphone/
+ *
+ * Copyright 2009 VUPhone Team
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package edu.vanderbilt.vuphone.android.campusmaps.tools;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.Charset;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Streaming HTTP downloads. Responses are read through buffered streams
+ * instead of a byte at a time, gzip bodies are inflated on the fly, text is
+ * decoded with the charset the server declares, and requests can be made
+ * conditional on an ETag or modification time so unchanged data is not
+ * downloaded again.
+ *
+ * A Response's stream can be handed straight to a parser such as
+ * BuildingXMLParser without building a String first.
+ */
+public class Downloader {
+
+	/** Used when the server does not name a charset */
+	public static final String DEFAULT_CHARSET = "UTF-8";
+
+	private static final int BUFFER_SIZE = 8192;
+	private static final int CONNECT_TIMEOUT = 15000;
+	private static final int READ_TIMEOUT = 30000;
+
+	// One copy buffer per thread, reused by every download on that thread
+	private static final ThreadLocal<byte[]> buffer_ = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[BUFFER_SIZE];
+		}
+	};
+
+	/**
+	 * An open response. close() it when done with the stream.
+	 */
+	public static class Response {
+		private final URLConnection connection_;
+		private final int status_;
+		private final InputStream in_;
+
+		private Response(URLConnection connection, int status, InputStream in) {
+			connection_ = connection;
+			status_ = status;
+			in_ = in;
+		}
+
+		/** HTTP status code, or 200 for other protocols */
+		public int getStatus() {
+			return status_;
+		}
+
+		/**
+		 * @return true if a conditional request found the data unchanged,
+		 *         the stream is then empty
+		 */
+		public boolean isNotModified() {
+			return status_ == HttpURLConnection.HTTP_NOT_MODIFIED;
+		}
+
+		/** @return the ETag header, or null */
+		public String getETag() {
+			return connection_.getHeaderField("ETag");
+		}
+
+		/** @return the Last-Modified time in ms, or 0 if not sent */
+		public long getLastModified() {
+			return connection_.getLastModified();
+		}
+
+		/** @return the declared length, or -1 if unknown or compressed */
+		public int getContentLength() {
+			if (connection_.getContentEncoding() != null)
+				return -1;
+			return connection_.getContentLength();
+		}
+
+		/** @return the charset from Content-Type, or DEFAULT_CHARSET */
+		public String getCharset() {
+			return charsetOf(connection_.getContentType());
+		}
+
+		/** @return the body, decompressed and buffered */
+		public InputStream getStream() {
+			return in_;
+		}
+
+		/** @return the body decoded with its charset */
+		public Reader getReader() {
+			String charset = getCharset();
+			try {
+				if (!Charset.isSupported(charset))
+					charset = DEFAULT_CHARSET;
+			} catch (IllegalArgumentException e) {
+				charset = DEFAULT_CHARSET;
+			}
+			try {
+				return new InputStreamReader(in_, charset);
+			} catch (IOException e) {
+				// Checked above, cannot happen
+				throw new IllegalStateException(e.getMessage());
+			}
+		}
+
+		/**
+		 * Reads the whole body as text and closes the response
+		 */
+		public String readString() throws IOException {
+			try {
+				int length = getContentLength();
+				StringBuilder sb = new StringBuilder(length > 0 ? length
+						: BUFFER_SIZE);
+				Reader reader = getReader();
+				char[] chars = new char[BUFFER_SIZE];
+				int n;
+				while ((n = reader.read(chars)) != -1)
+					sb.append(chars, 0, n);
+				return sb.toString();
+			} finally {
+				close();
+			}
+		}
+
+		/**
+		 * Copies the whole body to out and closes the response
+		 *
+		 * @return the number of bytes copied
+		 * @throws IOException
+		 *             also if the connection ended before the declared
+		 *             length was copied, out then holds a partial body
+		 */
+		public long copyTo(OutputStream out) throws IOException {
+			try {
+				int length = getContentLength();
+				long copied = copy(in_, out);
+				if (length >= 0 && copied != length)
+					throw new IOException("got " + copied + " of " + length
+							+ " bytes");
+				return copied;
+			} finally {
+				close();
+			}
+		}
+
+		public void close() {
+			try {
+				in_.close();
+			} catch (IOException e) {
+				// nothing left to do
+			}
+		}
+	}
+
+	/**
+	 * Opens a url
+	 */
+	public static Response open(String url) throws IOException {
+		return open(url, null, 0);
+	}
+
+	/**
+	 * Opens a url, asking the server to skip the body if it has not changed
+	 *
+	 * @param etag
+	 *            - ETag from an earlier response, or null
+	 * @param ifModifiedSince
+	 *            - Last-Modified from an earlier response, or 0
+	 * @throws IOException
+	 *             on network errors and error status codes
+	 */
+	public static Response open(String url, String etag, long ifModifiedSince)
+			throws IOException {
+		URLConnection c = new URL(url).openConnection();
+		c.setConnectTimeout(CONNECT_TIMEOUT);
+		c.setReadTimeout(READ_TIMEOUT);
+		c.setRequestProperty("Accept-Encoding", "gzip");
+		if (etag != null)
+			c.setRequestProperty("If-None-Match", etag);
+		if (ifModifiedSince > 0)
+			c.setIfModifiedSince(ifModifiedSince);
+
+		int status = HttpURLConnection.HTTP_OK;
+		if (c instanceof HttpURLConnection) {
+			status = ((HttpURLConnection) c).getResponseCode();
+			if (status == HttpURLConnection.HTTP_NOT_MODIFIED)
+				return new Response(c, status, new ByteArrayInputStream(
+						new byte[0]));
+			if (status >= 400)
+				throw new IOException("HTTP " + status + " for " + url);
+		}
+
+		InputStream in = c.getInputStream();
+		if ("gzip".equalsIgnoreCase(c.getContentEncoding()))
+			in = new GZIPInputStream(in, BUFFER_SIZE);
+		return new Response(c, status, new BufferedInputStream(in,
+				BUFFER_SIZE));
+	}
+
+	/**
+	 * Copies a stream through this thread's reusable buffer. Neither stream
+	 * is closed.
+	 *
+	 * @return the number of bytes copied
+	 */
+	public static long copy(InputStream in, OutputStream out)
+			throws IOException {
+		byte[] buffer = buffer_.get();
+		long total = 0;
+		int n;
+		while ((n = in.read(buffer)) != -1) {
+			out.write(buffer, 0, n);
+			total += n;
+		}
+		return total;
+	}
+
+	/**
+	 * @return the charset parameter of a Content-Type header, or
+	 *         DEFAULT_CHARSET
+	 */
+	static String charsetOf(String contentType) {
+		if (contentType == null)
+			return DEFAULT_CHARSET;
+		int i = contentType.toLowerCase().indexOf("charset=");
+		if (i < 0)
+			return DEFAULT_CHARSET;
+
+		String charset = contentType.substring(i + "charset=".length());
+		int end = charset.indexOf(';');
+		if (end >= 0)
+			charset = charset.substring(0, end);
+		charset = charset.trim();
+		if (charset.length() > 1 && charset.startsWith("\"")
+				&& charset.endsWith("\""))
+			charset = charset.substring(1, charset.length() - 1);
+		return charset.length() == 0 ? DEFAULT_CHARSET : charset;
+	}
+}
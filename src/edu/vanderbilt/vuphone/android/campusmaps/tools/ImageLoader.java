@@ -0,0 +1,318 @@
+/**
+ * Android Campus Maps
+ *  http://code.google.com/p/vuphone/
+ *
+ * Copyright 2009 VUPhone Team
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package edu.vanderbilt.vuphone.android.campusmaps.tools;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+
+import edu.vanderbilt.vuphone.android.campusmaps.Main;
+
+/**
+ * Loads building images in the background. Images are downloaded once into
+ * a size limited disk cache, decoded at a reduced size that still covers the
+ * requested dimensions, and kept in an in-memory LRU cache. Concurrent
+ * requests for the same image share a single download and decode.
+ *
+ * load() must be called from the UI thread; callbacks run on it too.
+ */
+public class ImageLoader {
+
+	/**
+	 * Receives the image on the UI thread, or null if it could not be loaded
+	 */
+	public interface Callback {
+		public void onImageLoaded(String url, Bitmap bmp);
+	}
+
+	private static final int MEMORY_CACHE_BYTES = 2 * 1024 * 1024;
+	private static final long DISK_CACHE_BYTES = 8 * 1024 * 1024;
+	private static final int THREADS = 2;
+	private static final String TMP_SUFFIX = ".tmp";
+	private static final long NO_BUILDING = -1;
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private static ImageLoader instance_ = null;
+
+	private final File dir_;
+	private final ImagePack pack_;
+	private final Handler handler_ = new Handler();
+	private final ExecutorService executor_ = Executors
+			.newFixedThreadPool(THREADS);
+
+	// Guarded by this
+	private final LinkedHashMap<String, Bitmap> memory_ = new LinkedHashMap<String, Bitmap>(
+			16, 0.75f, true);
+	private int memoryBytes_ = 0;
+	private final HashMap<String, ArrayList<Callback>> pending_ = new HashMap<String, ArrayList<Callback>>();
+
+	protected ImageLoader(File dir, ImagePack pack) {
+		dir_ = dir;
+		dir_.mkdirs();
+		pack_ = pack;
+	}
+
+	/**
+	 * Singleton accessor
+	 */
+	public static synchronized ImageLoader getInstance(Context ctx) {
+		if (instance_ == null)
+			instance_ = new ImageLoader(new File(ctx.getCacheDir(), "images"),
+					ImagePack.getInstance(ctx));
+		return instance_;
+	}
+
+	/**
+	 * Loads an image no smaller than the requested size (unless the
+	 * original is smaller)
+	 */
+	public void load(String url, int reqWidth, int reqHeight, Callback cb) {
+		load(NO_BUILDING, url, reqWidth, reqHeight, cb);
+	}
+
+	/**
+	 * Loads a building's image, from the offline ImagePack if it has been
+	 * prefetched
+	 */
+	public void load(final long buildingID, final String url,
+			final int reqWidth, final int reqHeight, Callback cb) {
+		final String key = url + "@" + reqWidth + "x" + reqHeight;
+
+		Bitmap cached;
+		synchronized (this) {
+			cached = memory_.get(key);
+			if (cached == null) {
+				// Join a load already in progress
+				ArrayList<Callback> waiting = pending_.get(key);
+				if (waiting != null) {
+					waiting.add(cb);
+					return;
+				}
+				waiting = new ArrayList<Callback>(2);
+				waiting.add(cb);
+				pending_.put(key, waiting);
+			}
+		}
+
+		// Called outside the lock, since it may call back into the loader
+		if (cached != null) {
+			cb.onImageLoaded(url, cached);
+			return;
+		}
+
+		executor_.execute(new Runnable() {
+			public void run() {
+				Bitmap bmp = null;
+				try {
+					if (buildingID != NO_BUILDING)
+						bmp = decodePacked(buildingID, reqWidth, reqHeight);
+					if (bmp == null) {
+						File f = fetch(url);
+						bmp = decode(f, reqWidth, reqHeight);
+					}
+				} catch (Exception e) {
+					Main.trace("Couldn't load image " + url + ": "
+							+ e.getMessage());
+				}
+				finish(key, url, bmp);
+			}
+		});
+	}
+
+	/**
+	 * Empties the memory cache, images stay on disk
+	 */
+	public synchronized void onLowMemory() {
+		memory_.clear();
+		memoryBytes_ = 0;
+	}
+
+	/**
+	 * @return the disk cache file for a url, which may not exist yet. It is
+	 *         named by the SHA-1 of the url, so different urls never share a
+	 *         file.
+	 */
+	public File cacheFile(String url) {
+		byte[] digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1").digest(
+					url.getBytes("UTF-8"));
+		} catch (Exception e) {
+			// Every Java platform has SHA-1 and UTF-8
+			throw new IllegalStateException(e);
+		}
+
+		StringBuilder name = new StringBuilder(digest.length * 2);
+		for (byte b : digest)
+			name.append(HEX[(b >> 4) & 0xf]).append(HEX[b & 0xf]);
+		return new File(dir_, name.toString());
+	}
+
+	private void finish(String key, final String url, final Bitmap bmp) {
+		final ArrayList<Callback> waiting;
+		synchronized (this) {
+			waiting = pending_.remove(key);
+			if (bmp != null) {
+				memory_.put(key, bmp);
+				memoryBytes_ += bmp.getRowBytes() * bmp.getHeight();
+				trimMemory();
+			}
+		}
+
+		handler_.post(new Runnable() {
+			public void run() {
+				for (int i = 0; i < waiting.size(); i++)
+					waiting.get(i).onImageLoaded(url, bmp);
+			}
+		});
+	}
+
+	// Downloads the image into the disk cache unless it is already there
+	private File fetch(String url) throws Exception {
+		File f = cacheFile(url);
+		if (f.exists()) {
+			// Mark as recently used for eviction
+			f.setLastModified(System.currentTimeMillis());
+			return f;
+		}
+
+		// Written to a temporary file first so a failed download never
+		// leaves a partial image under the cache name
+		Downloader.Response response = Downloader.open(url);
+		File tmp = null;
+		OutputStream out = null;
+		boolean written = false;
+		try {
+			tmp = File.createTempFile(f.getName(), TMP_SUFFIX, dir_);
+			out = new FileOutputStream(tmp);
+			response.copyTo(out);
+			out.close();
+			written = tmp.renameTo(f);
+		} finally {
+			response.close();
+			if (out != null)
+				out.close();
+			if (tmp != null && !written)
+				tmp.delete();
+		}
+		if (!written)
+			throw new Exception("could not write " + f);
+
+		trimDisk();
+		return f;
+	}
+
+	private static Bitmap decode(File f, int reqWidth, int reqHeight) {
+		BitmapFactory.Options opts = new BitmapFactory.Options();
+		opts.inJustDecodeBounds = true;
+		BitmapFactory.decodeFile(f.getPath(), opts);
+
+		opts = sampled(opts, reqWidth, reqHeight);
+		return BitmapFactory.decodeFile(f.getPath(), opts);
+	}
+
+	// Decodes straight from the pack's mapping, null if it is not there
+	private Bitmap decodePacked(long buildingID, int reqWidth, int reqHeight) {
+		InputStream in = pack_.open(buildingID);
+		if (in == null)
+			return null;
+		BitmapFactory.Options opts = new BitmapFactory.Options();
+		opts.inJustDecodeBounds = true;
+		BitmapFactory.decodeStream(in, null, opts);
+
+		opts = sampled(opts, reqWidth, reqHeight);
+		return BitmapFactory.decodeStream(pack_.open(buildingID), null, opts);
+	}
+
+	private static BitmapFactory.Options sampled(BitmapFactory.Options bounds,
+			int reqWidth, int reqHeight) {
+		// Largest power of two that keeps the image at least the requested
+		// size
+		int sample = 1;
+		while (bounds.outWidth / (sample * 2) >= reqWidth
+				&& bounds.outHeight / (sample * 2) >= reqHeight)
+			sample *= 2;
+
+		BitmapFactory.Options opts = new BitmapFactory.Options();
+		opts.inSampleSize = sample;
+		return opts;
+	}
+
+	// Caller must hold the lock
+	private void trimMemory() {
+		Iterator<Map.Entry<String, Bitmap>> it = memory_.entrySet()
+				.iterator();
+		while (memoryBytes_ > MEMORY_CACHE_BYTES && it.hasNext()) {
+			Bitmap bmp = it.next().getValue();
+			memoryBytes_ -= bmp.getRowBytes() * bmp.getHeight();
+			it.remove();
+		}
+	}
+
+	// Deletes the least recently used files until the cache fits
+	private void trimDisk() {
+		synchronized (dir_) {
+			trimDiskLocked();
+		}
+	}
+
+	private void trimDiskLocked() {
+		File[] files = dir_.listFiles();
+		if (files == null)
+			return;
+
+		// Downloads still in progress are left alone
+		ArrayList<File> done = new ArrayList<File>(files.length);
+		for (File f : files)
+			if (!f.getName().endsWith(TMP_SUFFIX))
+				done.add(f);
+		files = done.toArray(new File[done.size()]);
+
+		long total = 0;
+		for (File f : files)
+			total += f.length();
+		if (total <= DISK_CACHE_BYTES)
+			return;
+
+		Arrays.sort(files, new Comparator<File>() {
+			public int compare(File a, File b) {
+				long x = a.lastModified(), y = b.lastModified();
+				return x < y ? -1 : (x == y ? 0 : 1);
+			}
+		});
+		for (int i = 0; i < files.length && total > DISK_CACHE_BYTES; i++) {
+			long size = files[i].length();
+			if (files[i].delete())
+				total -= size;
+		}
+	}
+}
@@ -0,0 +1,300 @@
+/**
+ * Android Campus Maps
+ *  http://code.google.com/p/vuphone/
+ *
+ * Copyright 2009 VUPhone Team
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package edu.vanderbilt.vuphone.android.campusmaps.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import android.content.Context;
+
+import edu.vanderbilt.vuphone.android.campusmaps.Main;
+import edu.vanderbilt.vuphone.android.campusmaps.storage.LongIntMap;
+
+/**
+ * Building images stored in one append-only file, so they are available
+ * without a connection. The file is a header followed by records of
+ * (long building ID, int length, image bytes). The index of record
+ * positions is rebuilt from the record headers when the pack is opened, and
+ * a record cut short by an interrupted write is dropped, so a prefetch can
+ * resume where it stopped.
+ *
+ * Reads go through a read-only memory mapping of the file; get() returns a
+ * view into it without copying the image.
+ */
+public class ImagePack {
+
+	private static final int MAGIC = 0x56554950; // "VUIP"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 8;
+	private static final int RECORD_HEADER_SIZE = 12;
+
+	private static ImagePack instance_ = null;
+
+	private final File file_;
+	private RandomAccessFile raf_ = null;
+	private FileChannel channel_ = null;
+
+	// Record data positions and lengths, by slot
+	private final LongIntMap slots_ = new LongIntMap();
+	private int[] offsets_ = new int[64];
+	private int[] lengths_ = new int[64];
+	private int count_ = 0;
+	private long end_ = HEADER_SIZE;
+
+	// Covers [0, mappedEnd_) of the file, remapped when records are added
+	private MappedByteBuffer mapped_ = null;
+	private long mappedEnd_ = 0;
+
+	protected ImagePack(File file) {
+		file_ = file;
+		try {
+			open();
+		} catch (IOException e) {
+			Main.trace("Couldn't open image pack " + file + ": "
+					+ e.getMessage());
+			close();
+		}
+	}
+
+	/**
+	 * Singleton accessor, the pack lives in the application's files
+	 * directory so the system does not clear it like the cache
+	 */
+	public static synchronized ImagePack getInstance(Context ctx) {
+		if (instance_ == null)
+			instance_ = new ImagePack(new File(ctx.getFilesDir(),
+					"images.pack"));
+		return instance_;
+	}
+
+	/**
+	 * @return false if the pack file could not be opened
+	 */
+	public synchronized boolean isOpen() {
+		return channel_ != null;
+	}
+
+	public synchronized int size() {
+		return count_;
+	}
+
+	public synchronized boolean contains(long buildingID) {
+		return slots_.containsKey(buildingID);
+	}
+
+	/**
+	 * Adds a building's image. An image already in the pack is kept.
+	 *
+	 * @return false if it could not be written
+	 */
+	public synchronized boolean put(long buildingID, byte[] data, int length) {
+		if (channel_ == null)
+			return false;
+		if (slots_.containsKey(buildingID))
+			return true;
+
+		try {
+			raf_.seek(end_);
+			raf_.writeLong(buildingID);
+			raf_.writeInt(length);
+			raf_.write(data, 0, length);
+		} catch (IOException e) {
+			Main.trace("Couldn't write image " + buildingID + ": "
+					+ e.getMessage());
+			// Drop whatever part of the record made it to disk
+			try {
+				raf_.setLength(end_);
+			} catch (IOException ignored) {
+			}
+			return false;
+		}
+		add(buildingID, (int) end_ + RECORD_HEADER_SIZE, length);
+		return true;
+	}
+
+	/**
+	 * @return a read-only view of a building's image bytes, or null if it is
+	 *         not in the pack
+	 */
+	public synchronized ByteBuffer get(long buildingID) {
+		int slot = slots_.get(buildingID);
+		if (slot == LongIntMap.NOT_FOUND || !map())
+			return null;
+
+		ByteBuffer view = mapped_.duplicate();
+		view.position(offsets_[slot]);
+		view.limit(offsets_[slot] + lengths_[slot]);
+		return view.slice();
+	}
+
+	/**
+	 * @return a stream over a building's image, or null if it is not in the
+	 *         pack
+	 */
+	public InputStream open(long buildingID) {
+		ByteBuffer buffer = get(buildingID);
+		return buffer == null ? null : new BufferInputStream(buffer);
+	}
+
+	/**
+	 * Forces written images to disk
+	 */
+	public synchronized void sync() {
+		if (channel_ == null)
+			return;
+		try {
+			channel_.force(false);
+		} catch (IOException e) {
+			Main.trace("Couldn't sync image pack: " + e.getMessage());
+		}
+	}
+
+	public synchronized void close() {
+		mapped_ = null;
+		mappedEnd_ = 0;
+		try {
+			if (raf_ != null)
+				raf_.close();
+		} catch (IOException e) {
+			// nothing left to do
+		}
+		raf_ = null;
+		channel_ = null;
+	}
+
+	private void open() throws IOException {
+		raf_ = new RandomAccessFile(file_, "rw");
+		channel_ = raf_.getChannel();
+
+		long length = raf_.length();
+		if (length < HEADER_SIZE || raf_.readInt() != MAGIC
+				|| raf_.readInt() != VERSION) {
+			// New or unreadable, start over
+			raf_.setLength(0);
+			raf_.writeInt(MAGIC);
+			raf_.writeInt(VERSION);
+			end_ = HEADER_SIZE;
+			return;
+		}
+
+		// Index the records, stopping at the first incomplete one
+		long pos = HEADER_SIZE;
+		while (pos + RECORD_HEADER_SIZE <= length) {
+			raf_.seek(pos);
+			long id = raf_.readLong();
+			int size = raf_.readInt();
+			long next = pos + RECORD_HEADER_SIZE + size;
+			if (size < 0 || next > length || next > Integer.MAX_VALUE)
+				break;
+			add(id, (int) pos + RECORD_HEADER_SIZE, size);
+			pos = next;
+		}
+		end_ = pos;
+		if (pos < length)
+			raf_.setLength(pos);
+	}
+
+	private void add(long buildingID, int offset, int length) {
+		if (count_ == offsets_.length) {
+			offsets_ = grow(offsets_, count_ * 2);
+			lengths_ = grow(lengths_, count_ * 2);
+		}
+		offsets_[count_] = offset;
+		lengths_[count_] = length;
+		slots_.put(buildingID, count_++);
+		end_ = offset + length;
+	}
+
+	// Maps everything written so far, if it is not mapped already
+	private boolean map() {
+		if (channel_ == null)
+			return false;
+		if (mapped_ != null && mappedEnd_ == end_)
+			return true;
+		try {
+			mapped_ = channel_.map(FileChannel.MapMode.READ_ONLY, 0, end_);
+			mappedEnd_ = end_;
+			return true;
+		} catch (IOException e) {
+			Main.trace("Couldn't map image pack: " + e.getMessage());
+			return false;
+		}
+	}
+
+	private static int[] grow(int[] a, int length) {
+		int[] grown = new int[length];
+		System.arraycopy(a, 0, grown, 0, a.length);
+		return grown;
+	}
+
+	/**
+	 * Reads a ByteBuffer without copying it first
+	 */
+	private static class BufferInputStream extends InputStream {
+		private final ByteBuffer buffer_;
+		private int mark_ = 0;
+
+		BufferInputStream(ByteBuffer buffer) {
+			buffer_ = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer_.hasRemaining() ? buffer_.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (!buffer_.hasRemaining())
+				return -1;
+			len = Math.min(len, buffer_.remaining());
+			buffer_.get(b, off, len);
+			return len;
+		}
+
+		@Override
+		public int available() {
+			return buffer_.remaining();
+		}
+
+		@Override
+		public boolean markSupported() {
+			return true;
+		}
+
+		@Override
+		public void mark(int readLimit) {
+			mark_ = buffer_.position();
+		}
+
+		@Override
+		public void reset() {
+			buffer_.position(mark_);
+		}
+
+		@Override
+		public long skip(long n) {
+			int skipped = (int) Math.min(n, buffer_.remaining());
+			buffer_.position(buffer_.position() + skipped);
+			return skipped;
+		}
+	}
+}
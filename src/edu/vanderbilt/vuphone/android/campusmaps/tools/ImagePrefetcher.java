@@ -0,0 +1,158 @@
+/**
+ * Android Campus Maps
+ *  http://code.google.com/p/vuphone/
+ *
+ * Copyright 2009 VUPhone Team
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package edu.vanderbilt.vuphone.android.campusmaps.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.Handler;
+
+import edu.vanderbilt.vuphone.android.campusmaps.Main;
+
+/**
+ * Downloads every building image into an ImagePack so BuildingInfo works
+ * offline. Only a few downloads run at once, and images already in the pack
+ * are skipped, so a prefetch that was cancelled or killed picks up where it
+ * stopped the next time it is started.
+ *
+ * start() and cancel() must be called from the UI thread; the listener is
+ * called on it too.
+ */
+public class ImagePrefetcher {
+
+	public interface Listener {
+		/** Called after each image, whether or not it could be saved */
+		public void onProgress(int done, int total);
+
+		public void onFinished(int saved, int failed);
+	}
+
+	private static final int THREADS = 3;
+	// Sync the pack to disk after this many new images
+	private static final int SYNC_EVERY = 16;
+
+	private final ImagePack pack_;
+	private final Listener listener_;
+	private final Handler handler_ = new Handler();
+	private Run run_ = null;
+
+	/**
+	 * One start() call; a cancelled run's late results are ignored
+	 */
+	private class Run {
+		final ExecutorService executor_ = Executors.newFixedThreadPool(THREADS);
+		final AtomicInteger done_ = new AtomicInteger();
+		final AtomicInteger failed_ = new AtomicInteger();
+		final int total_;
+
+		Run(int total) {
+			total_ = total;
+		}
+	}
+
+	public ImagePrefetcher(ImagePack pack, Listener listener) {
+		pack_ = pack;
+		listener_ = listener;
+	}
+
+	/**
+	 * Starts downloading the images of the given buildings that are not in
+	 * the pack yet. ids and urls are parallel; null urls are skipped.
+	 *
+	 * @return the number of images queued
+	 */
+	public int start(long[] ids, String[] urls) {
+		cancel();
+
+		boolean[] queued = new boolean[ids.length];
+		int total = 0;
+		for (int i = 0; i < ids.length; i++) {
+			queued[i] = urls[i] != null && !pack_.contains(ids[i]);
+			if (queued[i])
+				total++;
+		}
+		if (total == 0) {
+			listener_.onFinished(0, 0);
+			return 0;
+		}
+
+		Run run = new Run(total);
+		run_ = run;
+		for (int i = 0; i < ids.length; i++)
+			if (queued[i])
+				run.executor_.execute(download(run, ids[i], urls[i]));
+		// Threads exit once the queue is empty
+		run.executor_.shutdown();
+		return total;
+	}
+
+	/**
+	 * Stops after the downloads in progress, which are still saved
+	 */
+	public void cancel() {
+		if (run_ != null)
+			run_.executor_.shutdownNow();
+		run_ = null;
+	}
+
+	public boolean isRunning() {
+		return run_ != null;
+	}
+
+	private Runnable download(final Run run, final long id, final String url) {
+		return new Runnable() {
+			public void run() {
+				boolean saved = false;
+				try {
+					byte[] data = fetch(url);
+					saved = data.length > 0 && pack_.put(id, data, data.length);
+				} catch (Exception e) {
+					Main.trace("Couldn't prefetch " + url + ": "
+							+ e.getMessage());
+				}
+				if (!saved)
+					run.failed_.incrementAndGet();
+
+				final int done = run.done_.incrementAndGet();
+				if (done % SYNC_EVERY == 0 || done == run.total_)
+					pack_.sync();
+				handler_.post(new Runnable() {
+					public void run() {
+						if (run != run_)
+							return;
+						listener_.onProgress(done, run.total_);
+						if (done == run.total_) {
+							run_ = null;
+							int failed = run.failed_.get();
+							listener_.onFinished(done - failed, failed);
+						}
+					}
+				});
+			}
+		};
+	}
+
+	private static byte[] fetch(String url) throws Exception {
+		Downloader.Response response = Downloader.open(url);
+		int length = response.getContentLength();
+		ByteArrayOutputStream out = new ByteArrayOutputStream(
+				length > 0 ? length : 32 * 1024);
+		response.copyTo(out);
+		return out.toByteArray();
+	}
+}
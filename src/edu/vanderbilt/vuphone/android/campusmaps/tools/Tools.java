@@ -19,10 +19,6 @@
 package edu.vanderbilt.vuphone.android.campusmaps.tools;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.URL;
-import java.net.URLConnection;
-import java.util.Scanner;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -63,64 +59,48 @@ public class Tools {
 	 * @return GeoPoint at input location
 	 */
 	public static GeoPoint EPSG900913ToGeoPoint(double x, double y) {
+		int[] e6 = EPSG900913ToE6(x, y);
+		return new GeoPoint(e6[0], e6[1]);
+	}
+
+	/**
+	 * Same as EPSG900913ToGeoPoint, without needing the maps library
+	 * 
+	 * @return { latitude, longitude } in microdegrees
+	 */
+	public static int[] EPSG900913ToE6(double x, double y) {
 		double longitude = x / (6378137.0 * Math.PI / 180);
 		double latitude = ((Math.atan(Math.pow(Math.E, (y / 6378137.0))))
 				/ (Math.PI / 180) - 45) * 2.0;
 
-		return new GeoPoint((int) (latitude * 1E6), (int) (longitude * 1E6));
+		return new int[] { (int) (latitude * 1E6), (int) (longitude * 1E6) };
 	}
 
 	/**
 	 * Download a webpage to a string
 	 * 
 	 * @param url
-	 * @return
+	 * @return the page, or an empty string if it could not be downloaded
 	 */
 	public static String downloadWebpage(String url) {
-
-		StringBuilder content = new StringBuilder();
-		URLConnection connection = null;
 		try {
-			connection = new URL(url).openConnection();
-			Scanner scanner = new Scanner(connection.getInputStream());
-			scanner.useDelimiter("\\Z");
-			while (scanner.hasNext()) {
-				content.append(scanner.next());
-			}
-		} catch (Exception ex) {
+			return getDataFromUrl(url);
+		} catch (IOException ex) {
 			ex.printStackTrace();
+			return "";
 		}
-		return content.toString();
 	}
 
+	/**
+	 * Download a url to a string, decoded with the charset the server
+	 * declares. Use Downloader.open() to stream large responses instead.
+	 * 
+	 * @param url
+	 * @return
+	 * @throws IOException
+	 */
 	public static String getDataFromUrl(String url) throws IOException {
-
-		StringBuffer b = new StringBuffer();
-		InputStream is = null;
-		URLConnection c = null;
-
-		long len = 0;
-		int ch = 0;
-		c = new URL(url).openConnection();
-		is = c.getInputStream();
-		len = c.getContentLength();
-
-		if (len != -1) {
-			// Read exactly Content-Length bytes
-			for (int i = 0; i < len; i++)
-				if ((ch = is.read()) != -1) {
-					b.append((char) ch);
-				}
-		} else {
-			// Read until the connection is closed.
-			while ((ch = is.read()) != -1) {
-				len = is.available();
-				b.append((char) ch);
-			}
-		}
-
-		is.close();
-		return b.toString();
+		return Downloader.open(url).readString();
 	}
 
 }
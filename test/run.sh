@@ -0,0 +1,41 @@
+#!/bin/sh
+# Compiles the app classes under test against the stubs in test/stubs and
+# runs the tests and benchmarks in test/src on a desktop JVM. Needs a JDK,
+# and fetches the sqlite-jdbc driver the SQLite stubs run on into test/lib
+# the first time. Any compiler warning fails the run.
+set -e
+cd "$(dirname "$0")/.."
+
+A=src/edu/vanderbilt/vuphone/android/campusmaps
+S=$A/storage
+T=$A/tools
+OUT=test/bin
+SQLITE=test/lib/sqlite-jdbc-3.36.0.3.jar
+
+if [ ! -f $SQLITE ]; then
+	mkdir -p test/lib
+	curl -sfLo $SQLITE.tmp https://repo1.maven.org/maven2/org/xerial/sqlite-jdbc/3.36.0.3/sqlite-jdbc-3.36.0.3.jar
+	mv $SQLITE.tmp $SQLITE
+fi
+
+rm -rf $OUT
+mkdir -p $OUT
+javac -Xlint:all -Werror -d $OUT $(find test/stubs test/src -name '*.java') \
+	$S/AsyncDBWrapper.java $S/Building.java $S/DBAdapter.java \
+	$S/DBWrapper.java $S/DetailCache.java $S/LongIntMap.java \
+	$S/SpatialIndex.java $T/BuildingXMLParser.java $T/Downloader.java \
+	$T/Tools.java $T/XMLTools.java $T/ImageLoader.java $T/ImagePack.java \
+	$S/BuildingSync.java $A/PathOverlay.java
+
+# Tests first, they exit with status 1 on failure; then benchmarks
+P=edu.vanderbilt.vuphone.android.campusmaps
+for MAIN in storage.QueryPlanTest storage.DBWrapperStressTest \
+		storage.BuildingSyncTest tools.ImageLoaderTest \
+		storage.DBWrapperLookupBenchmark storage.SpatialIndexBenchmark \
+		tools.BuildingXMLParserBenchmark; do
+	echo "== $MAIN"
+	java -cp $OUT:$SQLITE $P.$MAIN
+done
+# Dalvik keeps the short lived objects the JIT would otherwise remove
+echo "== PathOverlayBenchmark"
+java -XX:-DoEscapeAnalysis -cp $OUT $P.PathOverlayBenchmark
@@ -0,0 +1,84 @@
+/**
+ * Android Campus Maps
+ *  http://code.google.com/p/vuphone/
+ *
+ * Copyright 2009 VUPhone Team
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package edu.vanderbilt.vuphone.android.campusmaps;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Times a piece of code on a desktop JVM. Each run is repeated until it has
+ * warmed up and then timed for a fixed period, which is enough to compare
+ * two implementations side by side, though not a substitute for profiling
+ * on a device.
+ */
+public abstract class Benchmark {
+
+	private static final long WARMUP_NANOS = 300 * 1000 * 1000L;
+	private static final long MEASURE_NANOS = 700 * 1000 * 1000L;
+
+	/** Results are added here so the JIT cannot drop the work */
+	public static volatile long sink;
+
+	/**
+	 * One round of the code being timed
+	 * 
+	 * @return any value computed from the work, added to sink
+	 */
+	protected abstract long run();
+
+	/**
+	 * @param ops
+	 *            operations in one call of run()
+	 * @return mean nanoseconds per operation
+	 */
+	public double nanosPerOp(int ops) {
+		long total = 0;
+		long end = System.nanoTime() + WARMUP_NANOS;
+		while (System.nanoTime() < end)
+			total += run();
+
+		long rounds = 0;
+		long start = System.nanoTime();
+		end = start + MEASURE_NANOS;
+		long now;
+		do {
+			total += run();
+			rounds++;
+			now = System.nanoTime();
+		} while (now < end);
+		sink += total;
+		return (now - start) / (double) (rounds * ops);
+	}
+
+	/** @return bytes allocated by this thread while r ran */
+	public static long allocated(Runnable r) {
+		com.sun.management.ThreadMXBean threads;
+		threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		long id = Thread.currentThread().getId();
+		long before = threads.getThreadAllocatedBytes(id);
+		r.run();
+		return threads.getThreadAllocatedBytes(id) - before;
+	}
+
+	/** @return nanos formatted to a fixed width, for tables */
+	public static String format(double nanos) {
+		if (nanos >= 1E6)
+			return String.format("%10.2f ms", nanos / 1E6);
+		if (nanos >= 1E3)
+			return String.format("%10.2f us", nanos / 1E3);
+		return String.format("%10.1f ns", nanos);
+	}
+}
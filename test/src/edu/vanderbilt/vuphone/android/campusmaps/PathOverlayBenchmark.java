@@ -0,0 +1,223 @@
+/**
+ * Android Campus Maps
+ *  http://code.google.com/p/vuphone/
+ *
+ * Copyright 2009 VUPhone Team
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package edu.vanderbilt.vuphone.android.campusmaps;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.Random;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Point;
+
+import com.google.android.maps.GeoPoint;
+import com.google.android.maps.MapView;
+import com.google.android.maps.Overlay;
+
+/**
+ * Times PathOverlay.draw against the draw it replaced, which rebuilt every
+ * path from toPixels calls on every frame. Both draw the same random walks
+ * around campus on an HVGA map at zoom 17. A pan frame moves the map a few
+ * pixels at the same zoom level, a zoom frame switches between 16 and 17.
+ * Each row is the mean over 100 frames of time, bytes allocated, toPixels
+ * calls and points added to paths. Run it with -XX:-DoEscapeAnalysis, as
+ * test/run.sh does: Dalvik does not remove short lived objects either.
+ */
+public class PathOverlayBenchmark {
+
+	private static final int FRAMES = 100;
+	private static final int CAMPUS_LAT = 36142830;
+	private static final int CAMPUS_LON = -86804437;
+	// About five metres
+	private static final int STEP = 45;
+
+	public static void main(String[] args) {
+		print("paths", "frame", "measure", "before", "after");
+		run(20, 100);
+		run(4, 2500);
+		System.exit(0);
+	}
+
+	private static void run(int paths, int points) {
+		MapView oldMap = map();
+		MapView newMap = map();
+		OldPathOverlay before = new OldPathOverlay(oldMap);
+		PathOverlay after = new PathOverlay(newMap);
+		Random r = new Random(paths);
+		for (int p = 0; p < paths; p++) {
+			int lat = CAMPUS_LAT + r.nextInt(6000) - 3000;
+			int lon = CAMPUS_LON + r.nextInt(6000) - 3000;
+			double heading = r.nextDouble() * 2 * Math.PI;
+			GeoPoint first = new GeoPoint(lat, lon);
+			before.StartNewPath(first);
+			after.StartNewPath(first);
+			for (int i = 1; i < points; i++) {
+				heading += r.nextGaussian() * 0.3;
+				lat += (int) (Math.sin(heading) * STEP);
+				lon += (int) (Math.cos(heading) * STEP);
+				GeoPoint g = new GeoPoint(lat, lon);
+				before.AddPoint(g);
+				after.AddPoint(g);
+			}
+			before.EndCurrentPath();
+			after.EndCurrentPath();
+		}
+
+		String workload = paths + " x " + points;
+		compare(workload, "pan", frames(before, oldMap, false), frames(
+				after, newMap, false));
+		compare(workload, "zoom", frames(before, oldMap, true), frames(
+				after, newMap, true));
+	}
+
+	private static MapView map() {
+		return new MapView(320, 480, new GeoPoint(CAMPUS_LAT, CAMPUS_LON), 17);
+	}
+
+	/** FRAMES frames of panning, or of changing zoom level if zoom */
+	private static Runnable frames(final Overlay overlay, final MapView map,
+			final boolean zoom) {
+		final Canvas canvas = new Canvas();
+		// Pans 3 pixels a frame, east for 100 frames then back
+		final GeoPoint[] centers = new GeoPoint[2 * FRAMES];
+		for (int i = 0; i < FRAMES; i++) {
+			centers[i] = new GeoPoint(CAMPUS_LAT, CAMPUS_LON + i * 32);
+			centers[2 * FRAMES - 1 - i] = centers[i];
+		}
+		return new Runnable() {
+			int frame = 0;
+
+			public void run() {
+				for (int i = 0; i < FRAMES; i++, frame++) {
+					map.setCenter(centers[frame % centers.length]);
+					if (zoom)
+						map.setZoom(frame % 2 == 0 ? 16 : 17);
+					overlay.draw(canvas, map, false, 0);
+				}
+			}
+		};
+	}
+
+	private static void compare(String workload, String frame,
+			final Runnable before, final Runnable after) {
+		double[] time = new double[2];
+		long[] bytes = new long[2];
+		long[] projections = new long[2];
+		long[] points = new long[2];
+		Runnable[] both = { before, after };
+		for (int i = 0; i < 2; i++) {
+			final Runnable frames = both[i];
+			time[i] = new Benchmark() {
+				protected long run() {
+					frames.run();
+					return 0;
+				}
+			}.nanosPerOp(FRAMES);
+			long p = MapView.getProjectionCount();
+			long n = Path.getPointCount();
+			bytes[i] = Benchmark.allocated(frames);
+			projections[i] = MapView.getProjectionCount() - p;
+			points[i] = Path.getPointCount() - n;
+		}
+		print(workload, frame, "time", Benchmark.format(time[0]), Benchmark
+				.format(time[1]));
+		print(workload, frame, "allocated", bytes[0] / FRAMES + " B",
+				bytes[1] / FRAMES + " B");
+		print(workload, frame, "toPixels", "" + projections[0] / FRAMES, ""
+				+ projections[1] / FRAMES);
+		print(workload, frame, "points built", "" + points[0] / FRAMES, ""
+				+ points[1] / FRAMES);
+	}
+
+	private static void print(String workload, String frame, String measure,
+			String before, String after) {
+		System.out.println(String.format("%-12s %-6s %-12s %12s %12s",
+				workload, frame, measure, before, after));
+	}
+
+	/**
+	 * PathOverlay's paths and draw() as they were before the projected
+	 * paths were cached
+	 */
+	private static class OldPathOverlay extends Overlay {
+		Paint paintPath_ = new Paint();
+		HashMap<Integer, ArrayList<GeoPoint>> hmPathList_;
+		int iCurID_ = -1;
+		int iNextID_ = 1;
+
+		OldPathOverlay(MapView view) {
+			paintPath_.setAntiAlias(true);
+			hmPathList_ = new HashMap<Integer, ArrayList<GeoPoint>>();
+			view.getOverlays().add(this);
+		}
+
+		int StartNewPath(GeoPoint gpNew) {
+			iCurID_ = iNextID_;
+			iNextID_++;
+			ArrayList<GeoPoint> lstNewPath = new ArrayList<GeoPoint>();
+			lstNewPath.add(gpNew);
+			hmPathList_.put(iCurID_, lstNewPath);
+			return iCurID_;
+		}
+
+		int EndCurrentPath() {
+			int rtn = iCurID_;
+			iCurID_ = -1;
+			return rtn;
+		}
+
+		int AddPoint(GeoPoint gpNew) {
+			hmPathList_.get(iCurID_).add(gpNew);
+			return iCurID_;
+		}
+
+		@Override
+		public boolean draw(Canvas canv, MapView mvMap, boolean b, long when) {
+			super.draw(canv, mvMap, b, when);
+
+			// Set up the path painter
+			paintPath_.setStrokeWidth(4);
+			paintPath_.setARGB(100, 113, 105, 252);
+			paintPath_.setStyle(Paint.Style.STROKE);
+
+			// Drawing loop
+			Iterator<Entry<Integer, ArrayList<GeoPoint>>> itMap = hmPathList_
+					.entrySet().iterator();
+			while (itMap.hasNext()) {
+				Path curPath = new Path();
+				Entry<Integer, ArrayList<GeoPoint>> curPair = itMap.next();
+				Iterator<GeoPoint> itCurGeoPoint = curPair.getValue()
+						.iterator();
+				Point curPoint = new Point();
+				if (itCurGeoPoint.hasNext()) {
+					mvMap.getProjection().toPixels(itCurGeoPoint.next(),
+							curPoint);
+					curPath.moveTo(curPoint.x, curPoint.y);
+				}
+				while (itCurGeoPoint.hasNext()) {
+					mvMap.getProjection().toPixels(itCurGeoPoint.next(),
+							curPoint);
+					curPath.lineTo(curPoint.x, curPoint.y);
+				}
+				canv.drawPath(curPath, paintPath_);
+			}
+			return true;
+		}
+	}
+}
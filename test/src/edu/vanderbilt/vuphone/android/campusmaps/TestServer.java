@@ -0,0 +1,145 @@
+/**
+ * Android Campus Maps
+ *  http://code.google.com/p/vuphone/
+ *
+ * Copyright 2009 VUPhone Team
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package edu.vanderbilt.vuphone.android.campusmaps;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local HTTP server standing in for the campus web site in tests. Each
+ * path is answered by a Responder, and every request is recorded so a test
+ * can check what was asked for.
+ */
+public class TestServer {
+
+	public interface Responder {
+		public void respond(HttpExchange x) throws IOException;
+	}
+
+	/** A recorded request */
+	public static class Request {
+		public final String path;
+		public final URI uri;
+		public final Headers headers;
+
+		Request(HttpExchange x) {
+			path = x.getHttpContext().getPath();
+			uri = x.getRequestURI();
+			headers = x.getRequestHeaders();
+		}
+	}
+
+	private final HttpServer server_;
+	// Guarded by this
+	private final List<Request> requests_ = new ArrayList<Request>();
+
+	public TestServer() throws IOException {
+		server_ = HttpServer.create(new InetSocketAddress(InetAddress
+				.getByName("127.0.0.1"), 0), 0);
+		server_.setExecutor(Executors.newCachedThreadPool(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				// A test that throws must not be kept alive by the server
+				Thread t = new Thread(r, "TestServer");
+				t.setDaemon(true);
+				return t;
+			}
+		}));
+		server_.start();
+	}
+
+	/** Answers requests for path, and anything under it, with r */
+	public void serve(String path, final Responder r) {
+		server_.createContext(path, new HttpHandler() {
+			public void handle(HttpExchange x) throws IOException {
+				synchronized (TestServer.this) {
+					requests_.add(new Request(x));
+				}
+				try {
+					r.respond(x);
+				} finally {
+					x.close();
+				}
+			}
+		});
+	}
+
+	/** @return the url of path on this server */
+	public String url(String path) {
+		return "http://127.0.0.1:" + server_.getAddress().getPort() + path;
+	}
+
+	/** @return the requests made for path so far, oldest first */
+	public synchronized List<Request> getRequests(String path) {
+		List<Request> list = new ArrayList<Request>();
+		for (Request r : requests_)
+			if (r.path.equals(path))
+				list.add(r);
+		return list;
+	}
+
+	/** @return the latest request for path, or null */
+	public Request getLastRequest(String path) {
+		List<Request> list = getRequests(path);
+		return list.isEmpty() ? null : list.get(list.size() - 1);
+	}
+
+	public void stop() {
+		server_.stop(0);
+	}
+
+	/**
+	 * Sends a whole response
+	 * 
+	 * @param headers
+	 *            - header names and values, alternating
+	 */
+	public static void send(HttpExchange x, int status, byte[] body,
+			String... headers) throws IOException {
+		for (int i = 0; i < headers.length; i += 2)
+			x.getResponseHeaders().add(headers[i], headers[i + 1]);
+		if (body == null) {
+			x.sendResponseHeaders(status, -1);
+			return;
+		}
+		x.sendResponseHeaders(status, body.length);
+		OutputStream out = x.getResponseBody();
+		out.write(body);
+		out.close();
+	}
+
+	/** @return body compressed for a Content-Encoding: gzip response */
+	public static byte[] gzip(byte[] body) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		GZIPOutputStream out = new GZIPOutputStream(bytes);
+		out.write(body);
+		out.close();
+		return bytes.toByteArray();
+	}
+}
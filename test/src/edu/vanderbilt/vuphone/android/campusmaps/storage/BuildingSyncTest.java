@@ -0,0 +1,274 @@
+/**
+ * Android Campus Maps
+ *  http://code.google.com/p/vuphone/
+ *
+ * Copyright 2009 VUPhone Team
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package edu.vanderbilt.vuphone.android.campusmaps.storage;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import edu.vanderbilt.vuphone.android.campusmaps.Main;
+import edu.vanderbilt.vuphone.android.campusmaps.TestServer;
+import edu.vanderbilt.vuphone.android.campusmaps.tools.BuildingXMLParser;
+
+/**
+ * Checks BuildingSync against a local TestServer serving the building feed,
+ * with a real DBAdapter underneath: the first sync fetches the whole gzip
+ * feed, later ones send the saved ETag and modification time and do
+ * nothing on 304, changed buildings update their rows instead of adding
+ * new ones, failures keep the saved version, and the feed is checked at
+ * most daily. Run it with test/run.sh. Exits with status 1 if any check
+ * fails.
+ */
+public class BuildingSyncTest {
+
+	private static final String LAST_MODIFIED =
+			"Sun, 01 Nov 2009 12:00:00 GMT";
+	private static final long LAST_MODIFIED_MS = 1257076800000L;
+	private static final long HOUR = 60 * 60 * 1000L;
+
+	private static final String DETAIL_QUERY = Pattern
+			.quote(SQLiteQueryBuilder.buildQueryString(false,
+					DBAdapter.BUILDING_TABLE, DBAdapter.PROJECTION_DETAILS,
+					DBAdapter.COLUMN_ID + " = ?", null, null, null, null));
+
+	private static TestServer server_;
+	// What /feed answers: an ETag and feed, or an error status
+	private static volatile String etag_;
+	private static volatile String feed_;
+	private static volatile int error_ = 0;
+	private static int failures_ = 0;
+
+	/** Waits for one sync */
+	private static class Result implements BuildingSync.Listener {
+		private final CountDownLatch done_ = new CountDownLatch(1);
+		private int changed_;
+
+		public void onSyncFinished(int changed) {
+			changed_ = changed;
+			done_.countDown();
+		}
+
+		int get() throws InterruptedException {
+			if (!done_.await(10, TimeUnit.SECONDS))
+				throw new IllegalStateException("sync did not finish");
+			return changed_;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		server_ = new TestServer();
+		server_.serve("/feed", new TestServer.Responder() {
+			public void respond(HttpExchange x) throws IOException {
+				if (error_ != 0)
+					TestServer.send(x, error_, null);
+				else if (etag_.equals(x.getRequestHeaders().getFirst(
+						"If-None-Match")))
+					TestServer.send(x, 304, null, "ETag", etag_);
+				else
+					TestServer.send(x, 200, TestServer.gzip(feed_
+							.getBytes("UTF-8")), "ETag", etag_,
+							"Last-Modified", LAST_MODIFIED,
+							"Content-Encoding", "gzip", "Content-Type",
+							"text/xml; charset=UTF-8");
+			}
+		});
+
+		DBWrapper.createAll(new DBAdapter.BuildingSource() {
+			public boolean read(BuildingXMLParser.Listener out) {
+				// Names as BuildingXMLParser stores them
+				for (String name : new String[] { "Alpha", "Beta", "Gamma" })
+					out.onBuilding(new Building(0, 36142830, -86804437, name,
+							"old", "IMAGES/1.JPG"));
+				return true;
+			}
+		});
+
+		BuildingSync sync = new BuildingSync(Main.applicationContext, server_
+				.url("/feed"));
+		firstSync(sync);
+		notModified(sync);
+		changedAgain(sync);
+		failure(sync);
+		daily(sync);
+
+		server_.stop();
+		if (failures_ > 0) {
+			System.out.println(failures_ + " checks failed");
+			System.exit(1);
+		}
+		System.out.println("All checks passed");
+		System.exit(0);
+	}
+
+	/**
+	 * Without a saved version the whole feed is fetched; a building already
+	 * in the table is updated in place and a new one added. Only the
+	 * updated building's cached details are dropped.
+	 */
+	private static void firstSync(BuildingSync sync) throws Exception {
+		etag_ = "\"v1\"";
+		feed_ = feed(feature("BETA", "new"), feature("DELTA", "added"));
+		long alpha = find("Alpha");
+		long beta = find("Beta");
+		check(DBWrapper.getDesc(alpha).equals("old"), "alpha cached");
+		check(DBWrapper.getDesc(beta).equals("old"), "beta cached");
+
+		sync.reset();
+		check(sync.isDue(), "due when never checked");
+		Result r = new Result();
+		start(sync, r);
+		check(r.get() == 2, "two buildings written, not " + r.get());
+
+		TestServer.Request req = server_.getLastRequest("/feed");
+		check(req.headers.getFirst("If-None-Match") == null, "no ETag sent");
+		check(req.headers.getFirst("If-Modified-Since") == null,
+				"no If-Modified-Since sent");
+		check(req.uri.getQuery() == null, "no since parameter");
+
+		check(DBWrapper.getIDs().size() == 4, "four rows, not "
+				+ DBWrapper.getIDs().size());
+		check(find("Beta") == beta, "Beta kept its row");
+		check(DBWrapper.getDesc(beta).equals("new"), "Beta updated");
+		check(find("Delta") > 0, "Delta added");
+		int details = SQLiteDatabase.getQueryCount(DETAIL_QUERY);
+		check(DBWrapper.getDesc(alpha).equals("old"), "Alpha unchanged");
+		check(SQLiteDatabase.getQueryCount(DETAIL_QUERY) == details,
+				"Alpha still cached");
+		check(!sync.isDue(), "not due right after a sync");
+	}
+
+	/**
+	 * The saved ETag and modification time are sent back, and a 304 writes
+	 * nothing
+	 */
+	private static void notModified(BuildingSync sync) throws Exception {
+		int rows = DBWrapper.getIDs().size();
+		Result r = new Result();
+		start(sync, r);
+		check(r.get() == 0, "nothing written on 304, not " + r.get());
+
+		TestServer.Request req = server_.getLastRequest("/feed");
+		check(etag_.equals(req.headers.getFirst("If-None-Match")),
+				"sent ETag " + req.headers.getFirst("If-None-Match"));
+		check(LAST_MODIFIED.equals(req.headers
+				.getFirst("If-Modified-Since")), "sent If-Modified-Since "
+				+ req.headers.getFirst("If-Modified-Since"));
+		check(("since=" + LAST_MODIFIED_MS).equals(req.uri.getQuery()),
+				"sent " + req.uri.getQuery());
+		check(DBWrapper.getIDs().size() == rows, "no rows added");
+	}
+
+	/** A changed feed updates the same rows again */
+	private static void changedAgain(BuildingSync sync) throws Exception {
+		long beta = find("Beta");
+		long delta = find("Delta");
+		etag_ = "\"v2\"";
+		feed_ = feed(feature("BETA", "newer"), feature("DELTA", "changed"));
+		Result r = new Result();
+		start(sync, r);
+		check(r.get() == 2, "two buildings updated, not " + r.get());
+		check(DBWrapper.getIDs().size() == 4, "still four rows, not "
+				+ DBWrapper.getIDs().size());
+		check(find("Beta") == beta && find("Delta") == delta,
+				"same rows updated");
+		check(DBWrapper.getDesc(beta).equals("newer"), "Beta updated again");
+		check(DBWrapper.getDesc(delta).equals("changed"), "Delta updated");
+	}
+
+	/** A failed sync reports -1 and keeps the saved version */
+	private static void failure(BuildingSync sync) throws Exception {
+		error_ = 500;
+		Result r = new Result();
+		start(sync, r);
+		check(r.get() == -1, "failure reported, not " + r.get());
+
+		error_ = 0;
+		r = new Result();
+		start(sync, r);
+		check(r.get() == 0, "unchanged after the failure, not " + r.get());
+		check("\"v2\"".equals(server_.getLastRequest("/feed").headers
+				.getFirst("If-None-Match")), "version kept after failure");
+	}
+
+	/**
+	 * Due a day after the last check, or if the clock moved back past it
+	 */
+	private static void daily(BuildingSync sync) {
+		long now = System.currentTimeMillis();
+		check(!sync.isDue(), "not due after a check");
+		setLastChecked(now - 23 * HOUR);
+		check(!sync.isDue(), "not due after 23 hours");
+		setLastChecked(now - 25 * HOUR);
+		check(sync.isDue(), "due after 25 hours");
+		setLastChecked(now + HOUR);
+		check(sync.isDue(), "due when the clock moved back");
+	}
+
+	// The previous sync has always finished, so this one must start
+	private static void start(BuildingSync sync, Result r) {
+		check(sync.start(r), "sync started");
+	}
+
+	// BuildingSync's preferences, as it names them
+	private static void setLastChecked(long time) {
+		SharedPreferences prefs = Main.applicationContext
+				.getSharedPreferences("building_sync", Context.MODE_PRIVATE);
+		prefs.edit().putLong("last_checked", time).commit();
+	}
+
+	// row ID of the building with this name, or -1
+	private static long find(String name) {
+		List<Long> ids = DBWrapper.getIDs();
+		for (long id : ids)
+			if (DBWrapper.getName(id).equals(name))
+				return id;
+		return -1;
+	}
+
+	private static String feed(String... features) {
+		StringBuilder sb = new StringBuilder(
+				"<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<buildings>\n");
+		for (String f : features)
+			sb.append(f);
+		return sb.append("</buildings>\n").toString();
+	}
+
+	private static String feature(String name, String remarks) {
+		return "<feature>\n"
+				+ "<coordinates>-9663387.662859,4320095.365883</coordinates>\n"
+				+ "<TYPE>FACILITY</TYPE>\n" + "<FACILITY_NAME>" + name
+				+ "</FACILITY_NAME>\n"
+				+ "<FACILITY_URL>IMAGES/25.JPG</FACILITY_URL>\n"
+				+ "<FACILITY_REMARKS>" + remarks + "</FACILITY_REMARKS>\n"
+				+ "</feature>\n";
+	}
+
+	private static void check(boolean ok, String what) {
+		if (!ok) {
+			failures_++;
+			System.out.println("FAILED: " + what);
+		}
+	}
+}
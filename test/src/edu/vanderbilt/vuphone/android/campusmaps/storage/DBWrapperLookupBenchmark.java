@@ -0,0 +1,114 @@
+/**
+ * Android Campus Maps
+ *  http://code.google.com/p/vuphone/
+ *
+ * Copyright 2009 VUPhone Team
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package edu.vanderbilt.vuphone.android.campusmaps.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.vanderbilt.vuphone.android.campusmaps.Benchmark;
+import edu.vanderbilt.vuphone.android.campusmaps.tools.BuildingXMLParser;
+
+/**
+ * Times DBWrapper.getName over every building, as BuildingList and the map
+ * layer do, against the ArrayList.indexOf lookup it used before LongIntMap.
+ * The new path goes through DBWrapper and a real DBAdapter; the old one is
+ * rebuilt here from the same rows, an ArrayList of boxed row IDs searched
+ * with indexOf and a parallel ArrayList of buildings.
+ */
+public class DBWrapperLookupBenchmark {
+
+	private static final int[] SIZES = { 235, 1000, 10000 };
+
+	public static void main(String[] args) {
+		System.out.println("buildings  query             indexOf"
+				+ "    LongIntMap");
+		for (int n : SIZES)
+			run(n);
+		System.exit(0);
+	}
+
+	private static void run(int n) {
+		final int have = DBWrapper.getIDs().size();
+		final int add = n - have;
+		DBWrapper.createAll(new DBAdapter.BuildingSource() {
+			public boolean read(BuildingXMLParser.Listener out) {
+				for (int i = have + 1; i <= have + add; i++)
+					out.onBuilding(new Building(0, i * 100, -i * 100, "B" + i,
+							"desc" + i, "url" + i));
+				return true;
+			}
+		});
+
+		List<Long> rowIDs = DBWrapper.getIDs();
+		final long[] ids = new long[rowIDs.size()];
+		for (int i = 0; i < ids.length; i++)
+			ids[i] = rowIDs.get(i);
+
+		// DBWrapper's cache as it was, before LongIntMap
+		final ArrayList<Long> oldIDs = new ArrayList<Long>(rowIDs);
+		final ArrayList<Building> oldCache = new ArrayList<Building>();
+		for (long id : ids)
+			oldCache.add(new Building(id, 0, 0, DBWrapper.getName(id), null,
+					null));
+
+		final Runnable oldPass = new Runnable() {
+			public void run() {
+				long total = 0;
+				for (long id : ids)
+					total += oldCache.get(oldIDs.indexOf(id)).getName()
+							.length();
+				Benchmark.sink += total;
+			}
+		};
+		final Runnable newPass = new Runnable() {
+			public void run() {
+				long total = 0;
+				for (long id : ids)
+					total += DBWrapper.getName(id).length();
+				Benchmark.sink += total;
+			}
+		};
+
+		double before = new Benchmark() {
+			protected long run() {
+				oldPass.run();
+				return 0;
+			}
+		}.nanosPerOp(1);
+		double after = new Benchmark() {
+			protected long run() {
+				newPass.run();
+				return 0;
+			}
+		}.nanosPerOp(1);
+		print(n, "lookup", Benchmark.format(before / n), Benchmark
+				.format(after / n));
+		print(n, "every building", Benchmark.format(before), Benchmark
+				.format(after));
+		print(n, "allocated", bytes(Benchmark.allocated(oldPass)),
+				bytes(Benchmark.allocated(newPass)));
+	}
+
+	private static String bytes(long b) {
+		return String.format("%10d  B", b);
+	}
+
+	private static void print(int n, String query, String before,
+			String after) {
+		System.out.println(String.format("%9d  %-14s %s %s", n, query,
+				before, after));
+	}
+}
@@ -0,0 +1,259 @@
+/**
+ * Android Campus Maps
+ *  http://code.google.com/p/vuphone/
+ *
+ * Copyright 2009 VUPhone Team
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package edu.vanderbilt.vuphone.android.campusmaps.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+
+import edu.vanderbilt.vuphone.android.campusmaps.Main;
+import edu.vanderbilt.vuphone.android.campusmaps.tools.BuildingXMLParser;
+
+/**
+ * Multi-threaded checks of DBWrapper's copy-on-write cache, its single-flight
+ * loads and AsyncDBWrapper's batching. Runs on a desktop JVM against a real
+ * DBAdapter, through the SQLite stubs in test/stubs; run it with
+ * test/run.sh. Exits with status 1 if any check fails.
+ */
+public class DBWrapperStressTest {
+
+	private static final int THREADS = 16;
+	private static final long RUN_MILLIS = 3000;
+
+	/** Buildings in the table, row i named "B" + i with "desc" + i */
+	private static final int ROWS = 200;
+
+	/** DBWrapper's queries, as regexes for SQLiteDatabase.getQueryCount() */
+	private static final String MAIN_QUERY = Pattern.quote(SQLiteQueryBuilder
+			.buildQueryString(false, DBAdapter.BUILDING_TABLE,
+					DBAdapter.PROJECTION_MAIN, null, null, null, null, null));
+	private static final String DETAIL_QUERY = Pattern
+			.quote(SQLiteQueryBuilder.buildQueryString(false,
+					DBAdapter.BUILDING_TABLE, DBAdapter.PROJECTION_DETAILS,
+					DBAdapter.COLUMN_ID + " = ?", null, null, null, null));
+	private static final String BATCH_QUERY = ".* IN \\(.*";
+
+	private static final DBAdapter adapter = DBAdapter
+			.getInstance(Main.applicationContext);
+	private static int failures_ = 0;
+
+	public static void main(String[] args) throws Exception {
+		adapter.createBuildings(new DBAdapter.BuildingSource() {
+			public boolean read(BuildingXMLParser.Listener out) {
+				for (int i = 1; i <= ROWS; i++)
+					out.onBuilding(new Building(0, i * 100, -i * 100, "B" + i,
+							"desc" + i, "url" + i));
+				return true;
+			}
+		});
+		// Concurrent misses must overlap for the single-flight check
+		SQLiteDatabase.queryDelayMillis = 1;
+
+		singleFlight();
+		batchedLoads();
+		readersAndWriters();
+
+		if (failures_ > 0) {
+			System.out.println(failures_ + " checks failed");
+			System.exit(1);
+		}
+		System.out.println("All checks passed");
+		// AsyncDBWrapper's I/O thread would keep the JVM alive
+		System.exit(0);
+	}
+
+	/**
+	 * Every thread misses the same building at once, only one of them may
+	 * query for it
+	 */
+	private static void singleFlight() throws Exception {
+		int main = SQLiteDatabase.getQueryCount(MAIN_QUERY);
+		int detail = SQLiteDatabase.getQueryCount(DETAIL_QUERY);
+
+		final CyclicBarrier start = new CyclicBarrier(THREADS);
+		ExecutorService threads = Executors.newFixedThreadPool(THREADS);
+		List<Future<String>> results = new ArrayList<Future<String>>();
+		for (int t = 0; t < THREADS; t++)
+			results.add(threads.submit(new Callable<String>() {
+				public String call() throws Exception {
+					start.await();
+					return DBWrapper.getDesc(7);
+				}
+			}));
+		for (Future<String> f : results)
+			check("desc7".equals(f.get()), "single flight read " + f.get());
+		threads.shutdown();
+
+		check(SQLiteDatabase.getQueryCount(MAIN_QUERY) - main == 1,
+				"one main data query");
+		check(SQLiteDatabase.getQueryCount(DETAIL_QUERY) - detail == 1,
+				"one detail query");
+	}
+
+	/**
+	 * Requests queued while the I/O thread is busy are served together,
+	 * with one IN (...) query per 100 buildings
+	 */
+	private static void batchedLoads() throws Exception {
+		DBWrapper.getDetailCache().clear();
+		int batches = SQLiteDatabase.getQueryCount(BATCH_QUERY);
+		int detail = SQLiteDatabase.getQueryCount(DETAIL_QUERY);
+
+		final CountDownLatch hold = new CountDownLatch(1);
+		AsyncDBWrapper.submit(new Callable<Object>() {
+			public Object call() throws Exception {
+				hold.await();
+				return null;
+			}
+		}, null);
+
+		// 50 more than there are buildings, those must come back null
+		final AtomicInteger callbacks = new AtomicInteger();
+		int requests = ROWS + 50;
+		List<Future<Building>> results = new ArrayList<Future<Building>>();
+		for (long id = 1; id <= requests; id++)
+			results.add(AsyncDBWrapper.get(id, new AsyncDBWrapper.Callback() {
+				public void onBuildingLoaded(long rowID, Building b) {
+					callbacks.incrementAndGet();
+				}
+			}));
+		hold.countDown();
+
+		for (int i = 0; i < requests; i++) {
+			Building b = results.get(i).get();
+			long id = i + 1;
+			if (id <= ROWS)
+				check(b != null && ("desc" + id).equals(b.getDescription()),
+						"batched building " + id);
+			else
+				check(b == null, "missing building " + id);
+		}
+
+		check(SQLiteDatabase.getQueryCount(BATCH_QUERY) - batches == 3,
+				"three IN queries");
+		check(SQLiteDatabase.getQueryCount(DETAIL_QUERY) == detail,
+				"no single building queries");
+		check(callbacks.get() == requests, "every callback called");
+		check(AsyncDBWrapper.get(5, null).isDone(), "cached get completes");
+	}
+
+	/**
+	 * Readers run against one updater, which checks it reads its own
+	 * writes, and one thread that inserts, upserts and deletes rows. The
+	 * cache must match the table afterwards.
+	 */
+	private static void readersAndWriters() throws Exception {
+		final AtomicBoolean stop = new AtomicBoolean();
+		final AtomicInteger reads = new AtomicInteger();
+		final AtomicInteger errors = new AtomicInteger();
+		ExecutorService threads = Executors.newFixedThreadPool(THREADS);
+		List<Future<?>> running = new ArrayList<Future<?>>();
+
+		for (int t = 0; t < THREADS - 2; t++)
+			running.add(threads.submit(new Runnable() {
+				public void run() {
+					Random r = new Random();
+					while (!stop.get()) {
+						try {
+							long id = 1 + r.nextInt(ROWS);
+							String d = DBWrapper.get(id).getDescription();
+							if (!d.startsWith("desc") && !d.startsWith("upd"))
+								fail(errors, "read " + d + " for " + id);
+							DBWrapper.getSpatialIndex().nearest(0, 0, 3);
+							reads.incrementAndGet();
+						} catch (RuntimeException e) {
+							fail(errors, "reader threw " + e);
+						}
+					}
+				}
+			}));
+
+		running.add(threads.submit(new Runnable() {
+			public void run() {
+				Random r = new Random();
+				for (int k = 0; !stop.get(); k++) {
+					long id = 1 + r.nextInt(ROWS);
+					DBWrapper.update(id, new Building(id, (int) id * 100,
+							(int) -id * 100, "B" + id, "upd" + k, "url" + id));
+					String d = DBWrapper.get(id).getDescription();
+					if (!d.equals("upd" + k))
+						fail(errors, "stale read " + d + ", wrote upd" + k);
+				}
+			}
+		}));
+
+		running.add(threads.submit(new Runnable() {
+			public void run() {
+				for (int k = 0; !stop.get(); k++) {
+					DBWrapper.create(new Building(0, 5, 5, "N" + k, "descN",
+							"x"));
+					List<Building> l = new ArrayList<Building>();
+					l.add(new Building(0, 6, 6, "N" + k, "descU", "y"));
+					long[] rowIDs = DBWrapper.upsertAll(l);
+					if (rowIDs == null || !DBWrapper.delete(rowIDs[0]))
+						fail(errors, "could not delete N" + k);
+				}
+			}
+		}));
+
+		Thread.sleep(RUN_MILLIS);
+		stop.set(true);
+		for (Future<?> f : running)
+			f.get();
+		threads.shutdown();
+		System.out.println(reads + " reads during writes");
+		check(errors.get() == 0, errors + " errors during writes");
+
+		List<Long> ids = DBWrapper.getIDs();
+		check(ids.size() == ROWS, "row count " + ids.size());
+		check(DBWrapper.getSpatialIndex().size() == ids.size(),
+				"spatial index size");
+		for (long id : ids) {
+			Cursor c = adapter.getCursor(DBAdapter.PROJECTION_DETAILS, id);
+			c.moveToFirst();
+			String d = c.getString(0);
+			c.close();
+			check(d.equals(DBWrapper.get(id).getDescription()),
+					"cached description of " + id);
+			check(DBWrapper.getSpatialIndex().contains(id), "indexed " + id);
+		}
+	}
+
+	private static void fail(AtomicInteger errors, String what) {
+		errors.incrementAndGet();
+		System.out.println("FAILED: " + what);
+	}
+
+	private static void check(boolean ok, String what) {
+		if (!ok) {
+			failures_++;
+			System.out.println("FAILED: " + what);
+		}
+	}
+}
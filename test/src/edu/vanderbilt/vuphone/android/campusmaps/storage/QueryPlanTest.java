@@ -0,0 +1,112 @@
+/**
+ * Android Campus Maps
+ *  http://code.google.com/p/vuphone/
+ *
+ * Copyright 2009 VUPhone Team
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package edu.vanderbilt.vuphone.android.campusmaps.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import edu.vanderbilt.vuphone.android.campusmaps.Main;
+import edu.vanderbilt.vuphone.android.campusmaps.tools.BuildingXMLParser;
+
+/**
+ * Runs DBAdapter's name, location and IN (...) queries and checks with
+ * EXPLAIN QUERY PLAN that SQLite answers them from the indexes added by the
+ * migrations instead of scanning or sorting the table. Runs on a desktop
+ * JVM through the SQLite stubs in test/stubs; run it with test/run.sh.
+ * Exits with status 1 if any check fails.
+ */
+public class QueryPlanTest {
+
+	private static final int ROWS = 1000;
+
+	private static final DBAdapter adapter = DBAdapter
+			.getInstance(Main.applicationContext);
+	private static int failures_ = 0;
+
+	public static void main(String[] args) throws Exception {
+		adapter.createBuildings(new DBAdapter.BuildingSource() {
+			public boolean read(BuildingXMLParser.Listener out) {
+				for (int i = 1; i <= ROWS; i++)
+					out.onBuilding(new Building(0, 36000000 + i * 100,
+							-86000000 - i * 100, "Building " + i, "desc" + i,
+							"url" + i));
+				return true;
+			}
+		});
+
+		// The sorted list walks the NOCASE index instead of sorting
+		close(adapter.fetchAllBuildingsSortedCursor());
+		checkPlan("sorted list", "buildings_name_nocase", "TEMP B-TREE");
+		close(adapter.fetchSomeBuildingsSortedCursor("12"));
+		checkPlan("filtered list", "buildings_name_nocase", "TEMP B-TREE");
+
+		// Sync looks each building up by name
+		List<Building> sync = new ArrayList<Building>();
+		sync.add(new Building(0, 1, 1, "Building 7", "desc7", "url7"));
+		adapter.upsertBuildings(sync);
+		checkPlan("upsert lookup", "INDEX buildings_name (name=?)", null);
+
+		// The visible map area, answered by the location index alone
+		close(adapter.getCursorInBox(DBAdapter.PROJECTION_LOCATION, 36010000,
+				-86020000, 36020000, -86010000));
+		checkPlan("bounding box", "COVERING INDEX buildings_location", null);
+
+		// Batched and single building loads go straight to the row ID
+		close(adapter.getCursor(DBAdapter.PROJECTION_MAIN, new long[] { 1, 5,
+				9 }));
+		checkPlan("IN (...) batch", "INTEGER PRIMARY KEY", null);
+		close(adapter.getCursor(DBAdapter.PROJECTION_DETAILS, 5));
+		checkPlan("single building", "INTEGER PRIMARY KEY", null);
+
+		if (failures_ > 0) {
+			System.out.println(failures_ + " checks failed");
+			System.exit(1);
+		}
+		System.out.println("All checks passed");
+		System.exit(0);
+	}
+
+	private static void close(Cursor c) {
+		c.close();
+	}
+
+	/**
+	 * Checks the plan of the last query run on this thread
+	 * 
+	 * @param uses
+	 *            text one of the plan's steps must contain
+	 * @param avoids
+	 *            text none of the steps may contain, or null
+	 */
+	private static void checkPlan(String what, String uses, String avoids) {
+		SQLiteDatabase.Query query = SQLiteDatabase.getLastQuery();
+		List<String> plan = query.explain();
+		boolean used = false;
+		boolean avoided = true;
+		for (String step : plan) {
+			used |= step.contains(uses);
+			avoided &= avoids == null || !step.contains(avoids);
+		}
+		System.out.println(what + ": " + plan);
+		if (!used || !avoided) {
+			failures_++;
+			System.out.println("FAILED: " + what + " " + query.sql);
+		}
+	}
+}
@@ -0,0 +1,176 @@
+/**
+ * Android Campus Maps
+ *  http://code.google.com/p/vuphone/
+ *
+ * Copyright 2009 VUPhone Team
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package edu.vanderbilt.vuphone.android.campusmaps.storage;
+
+import java.util.Random;
+
+import edu.vanderbilt.vuphone.android.campusmaps.Benchmark;
+
+/**
+ * Times SpatialIndex against the linear scan over every building it
+ * replaces, at 1,000, 10,000 and 100,000 synthetic buildings. The buildings
+ * are spread at Vanderbilt's density, about 235 over two square kilometres,
+ * so a larger set covers a larger area. Queries use a viewport the size of
+ * the map at zoom 17 and random points inside the area.
+ */
+public class SpatialIndexBenchmark {
+
+	private static final int[] SIZES = { 1000, 10000, 100000 };
+	private static final int QUERIES = 256;
+	// Microdegrees per building, along each side of the area
+	private static final double SPACING = 900;
+	// Map span at zoom 17 on a phone screen, in microdegrees
+	private static final int VIEW_LAT = 2500;
+	private static final int VIEW_LON = 3000;
+	private static final int CAMPUS_LAT = 36142830;
+	private static final int CAMPUS_LON = -86804437;
+
+	public static void main(String[] args) {
+		System.out.println("buildings  query             linear"
+				+ "         index");
+		for (int n : SIZES)
+			run(n);
+		System.exit(0);
+	}
+
+	private static void run(int n) {
+		Random r = new Random(n);
+		int side = (int) (Math.sqrt(n) * SPACING);
+		final long[] ids = new long[n];
+		final int[] lats = new int[n];
+		final int[] lons = new int[n];
+		for (int i = 0; i < n; i++) {
+			ids[i] = i + 1;
+			lats[i] = CAMPUS_LAT + r.nextInt(side);
+			lons[i] = CAMPUS_LON + r.nextInt(side);
+		}
+		final int[] qLats = new int[QUERIES];
+		final int[] qLons = new int[QUERIES];
+		for (int q = 0; q < QUERIES; q++) {
+			qLats[q] = CAMPUS_LAT + r.nextInt(side);
+			qLons[q] = CAMPUS_LON + r.nextInt(side);
+		}
+
+		final SpatialIndex index = new SpatialIndex();
+		double build = new Benchmark() {
+			protected long run() {
+				SpatialIndex s = new SpatialIndex();
+				for (int i = 0; i < ids.length; i++)
+					s.put(ids[i], lats[i], lons[i]);
+				return s.size();
+			}
+		}.nanosPerOp(1);
+		for (int i = 0; i < n; i++)
+			index.put(ids[i], lats[i], lons[i]);
+		print(n, "build", Double.NaN, build);
+
+		double scanBox = new Benchmark() {
+			protected long run() {
+				long found = 0;
+				for (int q = 0; q < QUERIES; q++)
+					found += scanBox(lats, lons, qLats[q], qLons[q]);
+				return found;
+			}
+		}.nanosPerOp(QUERIES);
+		double indexBox = new Benchmark() {
+			protected long run() {
+				long found = 0;
+				for (int q = 0; q < QUERIES; q++)
+					found += index.query(qLats[q], qLons[q], qLats[q]
+							+ VIEW_LAT, qLons[q] + VIEW_LON).length;
+				return found;
+			}
+		}.nanosPerOp(QUERIES);
+		print(n, "viewport", scanBox, indexBox);
+
+		double scanNearest = new Benchmark() {
+			protected long run() {
+				long found = 0;
+				for (int q = 0; q < QUERIES; q++)
+					found += scanNearest(ids, lats, lons, qLats[q], qLons[q]);
+				return found;
+			}
+		}.nanosPerOp(QUERIES);
+		double indexNearest = new Benchmark() {
+			protected long run() {
+				long found = 0;
+				for (int q = 0; q < QUERIES; q++)
+					found += index.nearest(qLats[q], qLons[q], 1)[0];
+				return found;
+			}
+		}.nanosPerOp(QUERIES);
+		print(n, "nearest", scanNearest, indexNearest);
+
+		// A write copies the index, as DBWrapper does before publishing it
+		double update = new Benchmark() {
+			int k = 0;
+
+			protected long run() {
+				SpatialIndex s = index.copy();
+				s.put(ids[k % ids.length], qLats[k % QUERIES],
+						qLons[k % QUERIES]);
+				k++;
+				return s.size();
+			}
+		}.nanosPerOp(1);
+		print(n, "copy + put", Double.NaN, update);
+
+		// The answers must agree for the timings to mean anything
+		for (int q = 0; q < QUERIES; q++) {
+			int want = scanBox(lats, lons, qLats[q], qLons[q]);
+			int got = index.query(qLats[q], qLons[q], qLats[q] + VIEW_LAT,
+					qLons[q] + VIEW_LON).length;
+			long want1 = scanNearest(ids, lats, lons, qLats[q], qLons[q]);
+			long got1 = index.nearest(qLats[q], qLons[q], 1)[0];
+			if (want != got || want1 != got1)
+				throw new AssertionError("index disagrees with scan at " + q);
+		}
+	}
+
+	private static int scanBox(int[] lats, int[] lons, int lat, int lon) {
+		int found = 0;
+		for (int i = 0; i < lats.length; i++)
+			if (lats[i] >= lat && lats[i] <= lat + VIEW_LAT && lons[i] >= lon
+					&& lons[i] <= lon + VIEW_LON)
+				found++;
+		return found;
+	}
+
+	// Uses the same distance as SpatialIndex.nearest()
+	private static long scanNearest(long[] ids, int[] lats, int[] lons,
+			int lat, int lon) {
+		double scale = Math.cos(Math.toRadians(lat / 1E6));
+		long best = -1;
+		double bestDist = Double.MAX_VALUE;
+		for (int i = 0; i < lats.length; i++) {
+			double dy = lats[i] - lat;
+			double dx = (lons[i] - lon) * scale;
+			double d = dx * dx + dy * dy;
+			if (d < bestDist) {
+				bestDist = d;
+				best = ids[i];
+			}
+		}
+		return best;
+	}
+
+	private static void print(int n, String query, double linear,
+			double index) {
+		String scan = Double.isNaN(linear) ? "" : Benchmark.format(linear);
+		System.out.println(String.format("%9d  %-10s %13s %s", n, query, scan,
+				Benchmark.format(index)));
+	}
+}
@@ -0,0 +1,211 @@
+/**
+ * Android Campus Maps
+ *  http://code.google.com/p/vuphone/
+ *
+ * Copyright 2009 VUPhone Team
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package edu.vanderbilt.vuphone.android.campusmaps.tools;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+
+import com.google.android.maps.GeoPoint;
+
+import edu.vanderbilt.vuphone.android.campusmaps.Benchmark;
+import edu.vanderbilt.vuphone.android.campusmaps.storage.Building;
+
+/**
+ * Compares BuildingXMLParser with the DOM import it replaced, on the shipped
+ * tools/buildings.xml and on a synthetic file of 50,000 buildings made by
+ * repeating its features. For each it reports the time per file, the bytes
+ * allocated by one import and the most live heap seen during an import,
+ * sampled after garbage collection four times as the buildings arrive.
+ * Neither import keeps the buildings, as both hand them to the database.
+ */
+public class BuildingXMLParserBenchmark {
+
+	private static final File SHIPPED = new File("tools/buildings.xml");
+	private static final int SYNTHETIC = 50000;
+
+	/** Counts buildings, keeping none of them */
+	private static class Counter implements BuildingXMLParser.Listener {
+		int count = 0;
+		// Live heap is sampled every this many buildings, if positive
+		private final int sampleEvery_;
+		private final long baseline_;
+		long peak = 0;
+
+		Counter() {
+			this(0);
+		}
+
+		Counter(int sampleEvery) {
+			sampleEvery_ = sampleEvery;
+			baseline_ = sampleEvery > 0 ? liveHeap() : 0;
+		}
+
+		public void onBuilding(Building b) {
+			count++;
+			if (sampleEvery_ > 0 && count % sampleEvery_ == 0)
+				peak = Math.max(peak, liveHeap() - baseline_);
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		File big = File.createTempFile("buildings", ".xml");
+		big.deleteOnExit();
+		synthesize(SHIPPED, big, SYNTHETIC);
+
+		System.out.println("file            parser  buildings       time"
+				+ "    allocated    peak live");
+		run(SHIPPED.getName(), SHIPPED);
+		run(SYNTHETIC + " buildings", big);
+		System.exit(0);
+	}
+
+	private static void run(String name, final File f) throws IOException {
+		final Counter sax = new Counter();
+		double saxTime = new Benchmark() {
+			protected long run() {
+				sax.count = 0;
+				return BuildingXMLParser.parse(open(f), sax);
+			}
+		}.nanosPerOp(1);
+		long saxAllocated = Benchmark.allocated(new Runnable() {
+			public void run() {
+				BuildingXMLParser.parse(open(f), new Counter());
+			}
+		});
+		Counter saxLive = new Counter(sax.count / 4);
+		BuildingXMLParser.parse(open(f), saxLive);
+		print(name, "SAX", sax.count, saxTime, saxAllocated, saxLive.peak);
+
+		final Counter dom = new Counter();
+		double domTime = new Benchmark() {
+			protected long run() {
+				dom.count = 0;
+				return walk(XMLTools.parseXML(open(f)), dom);
+			}
+		}.nanosPerOp(1);
+		long domAllocated = Benchmark.allocated(new Runnable() {
+			public void run() {
+				walk(XMLTools.parseXML(open(f)), new Counter());
+			}
+		});
+		Counter domLive = new Counter(dom.count / 4);
+		walk(XMLTools.parseXML(open(f)), domLive);
+		print(name, "DOM", dom.count, domTime, domAllocated, domLive.peak);
+	}
+
+	/**
+	 * BuildingList.loadFromXML as it was before BuildingXMLParser, with the
+	 * buildings passed to out instead of kept, and a missing url skipped
+	 * instead of throwing
+	 */
+	private static int walk(Document doc, Counter out) {
+		NodeList list_ = doc.getElementsByTagName("feature");
+		for (int i = 0; i < list_.getLength(); i++) {
+			Properties attrib = XMLTools.NodeList2Array(list_.item(i)
+					.getChildNodes());
+			if (attrib == null)
+				continue;
+			String name = Tools.titleCase(attrib.getProperty("FACILITY_NAME"));
+			if (!attrib.containsKey("coordinates"))
+				continue;
+
+			String loc[] = attrib.getProperty("coordinates").split(" ");
+			String latlong[] = loc[0].split(",");
+			GeoPoint gp = Tools.EPSG900913ToGeoPoint(Double
+					.parseDouble(latlong[0]), Double.parseDouble(latlong[1]));
+			String url = attrib.getProperty("FACILITY_URL");
+			if (url != null)
+				url = "http://www.vanderbilt.edu/map/" + url.toLowerCase();
+
+			out.onBuilding(new Building(i, gp.getLatitudeE6(), gp
+					.getLongitudeE6(), name, attrib
+					.getProperty("FACILITY_REMARKS"), url));
+		}
+		return out.count;
+	}
+
+	/** Writes count features, cycling through those of the shipped file */
+	private static void synthesize(File from, File to, int count)
+			throws IOException {
+		String xml = read(from);
+		Matcher m = Pattern.compile("<feature>.*?</feature>", Pattern.DOTALL)
+				.matcher(xml);
+		List<String> features = new ArrayList<String>();
+		while (m.find())
+			features.add(m.group());
+
+		Writer out = new OutputStreamWriter(new FileOutputStream(to), "UTF-8");
+		try {
+			out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+					+ "<buildings>\n");
+			for (int i = 0; i < count; i++)
+				out.write(features.get(i % features.size()).replace(
+						"</FACILITY_NAME>", " " + i + "</FACILITY_NAME>")
+						+ "\n");
+			out.write("</buildings>\n");
+		} finally {
+			out.close();
+		}
+	}
+
+	private static String read(File f) throws IOException {
+		InputStream in = new FileInputStream(f);
+		try {
+			byte[] data = new byte[(int) f.length()];
+			int n = 0;
+			while (n < data.length)
+				n += in.read(data, n, data.length - n);
+			return new String(data, "UTF-8");
+		} finally {
+			in.close();
+		}
+	}
+
+	private static InputStream open(File f) {
+		try {
+			return new FileInputStream(f);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static long liveHeap() {
+		Runtime rt = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++)
+			System.gc();
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+	private static void print(String file, String parser, int buildings,
+			double nanos, long allocated, long live) {
+		System.out.println(String.format("%-16s %-4s %10d %s %9.1f MB"
+				+ " %9.1f MB", file, parser, buildings, Benchmark
+				.format(nanos), allocated / 1E6, live / 1E6));
+	}
+}
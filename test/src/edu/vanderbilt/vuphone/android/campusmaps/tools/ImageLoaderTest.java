@@ -0,0 +1,247 @@
+/**
+ * Android Campus Maps
+ *  http://code.google.com/p/vuphone/
+ *
+ * Copyright 2009 VUPhone Team
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package edu.vanderbilt.vuphone.android.campusmaps.tools;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import edu.vanderbilt.vuphone.android.campusmaps.Main;
+import edu.vanderbilt.vuphone.android.campusmaps.TestServer;
+
+/**
+ * Checks ImageLoader and the Downloader under it against a local
+ * TestServer: downsampling, the memory and disk caches, shared downloads,
+ * gzip bodies, and failed or truncated downloads, which must not leave a
+ * file in the disk cache. Images are the text the BitmapFactory stub
+ * decodes. Run it with test/run.sh. Exits with status 1 if any check fails.
+ */
+public class ImageLoaderTest {
+
+	private static final byte[] IMAGE = bytes("640 480\n");
+
+	private static TestServer server_;
+	private static File dir_;
+	private static ImageLoader loader_;
+	private static int failures_ = 0;
+
+	/** Waits for one callback */
+	private static class Result implements ImageLoader.Callback {
+		private final CountDownLatch done_ = new CountDownLatch(1);
+		private Bitmap bmp_;
+
+		public void onImageLoaded(String url, Bitmap bmp) {
+			bmp_ = bmp;
+			done_.countDown();
+		}
+
+		Bitmap get() throws InterruptedException {
+			if (!done_.await(10, TimeUnit.SECONDS))
+				throw new IllegalStateException("no callback");
+			return bmp_;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		server_ = new TestServer();
+		server_.serve("/plain", new TestServer.Responder() {
+			public void respond(HttpExchange x) throws IOException {
+				TestServer.send(x, 200, IMAGE, "Content-Type", "image/jpeg");
+			}
+		});
+		server_.serve("/slow", new TestServer.Responder() {
+			public void respond(HttpExchange x) throws IOException {
+				try {
+					Thread.sleep(200);
+				} catch (InterruptedException e) {
+					throw new IOException(e.getMessage());
+				}
+				TestServer.send(x, 200, IMAGE);
+			}
+		});
+		server_.serve("/gzip", new TestServer.Responder() {
+			public void respond(HttpExchange x) throws IOException {
+				TestServer.send(x, 200, TestServer.gzip(IMAGE),
+						"Content-Encoding", "gzip");
+			}
+		});
+		server_.serve("/truncated", new TestServer.Responder() {
+			public void respond(HttpExchange x) throws IOException {
+				// Promises twice what it sends, then drops the connection
+				x.sendResponseHeaders(200, IMAGE.length * 2);
+				OutputStream out = x.getResponseBody();
+				out.write(IMAGE);
+				out.flush();
+			}
+		});
+		server_.serve("/truncated-gzip", new TestServer.Responder() {
+			public void respond(HttpExchange x) throws IOException {
+				byte[] gz = TestServer.gzip(IMAGE);
+				TestServer.send(x, 200, Arrays.copyOf(gz, gz.length / 2),
+						"Content-Encoding", "gzip");
+			}
+		});
+		server_.serve("/missing", new TestServer.Responder() {
+			public void respond(HttpExchange x) throws IOException {
+				TestServer.send(x, 404, bytes("not found"));
+			}
+		});
+
+		dir_ = new File(Main.applicationContext.getCacheDir(), "images");
+		loader_ = new ImageLoader(dir_, null);
+
+		caches();
+		sharedDownload();
+		gzip();
+		failures();
+
+		server_.stop();
+		if (failures_ > 0) {
+			System.out.println(failures_ + " checks failed");
+			System.exit(1);
+		}
+		System.out.println("All checks passed");
+		// The loader's threads would keep the JVM alive
+		System.exit(0);
+	}
+
+	/**
+	 * The first load downloads and downsamples, the same size again comes
+	 * from memory and another size from the disk cache
+	 */
+	private static void caches() throws Exception {
+		String url = server_.url("/plain");
+		int decodes = BitmapFactory.getDecodeCount();
+
+		Bitmap bmp = load(url, 100, 100);
+		check(bmp != null && bmp.getWidth() == 160 && bmp.getHeight() == 120,
+				"downsampled to the smallest size covering 100x100");
+		check(loader_.cacheFile(url).exists(), "image written to disk");
+		check(Arrays.equals(read(loader_.cacheFile(url)), IMAGE),
+				"disk cache holds the body");
+
+		check(load(url, 100, 100) == bmp, "memory cache hit");
+		Bitmap larger = load(url, 320, 240);
+		check(larger != null && larger.getWidth() == 320,
+				"other size decoded again");
+		check(server_.getRequests("/plain").size() == 1,
+				"downloaded once, not " + server_.getRequests("/plain").size());
+		check(BitmapFactory.getDecodeCount() - decodes == 2, "two decodes");
+	}
+
+	/**
+	 * Loads of the same image while it downloads share the download and
+	 * the decoded bitmap
+	 */
+	private static void sharedDownload() throws Exception {
+		String url = server_.url("/slow");
+		List<Result> results = new ArrayList<Result>();
+		for (int i = 0; i < 5; i++) {
+			Result r = new Result();
+			loader_.load(url, 100, 100, r);
+			results.add(r);
+		}
+		Bitmap first = results.get(0).get();
+		check(first != null, "shared download loaded");
+		for (Result r : results)
+			check(r.get() == first, "every caller gets the same bitmap");
+		check(server_.getRequests("/slow").size() == 1, "one download");
+	}
+
+	/** A gzip body is inflated before it is cached */
+	private static void gzip() throws Exception {
+		String url = server_.url("/gzip");
+		Bitmap bmp = load(url, 640, 480);
+		check(bmp != null && bmp.getWidth() == 640, "gzip image decoded");
+		String accept = server_.getLastRequest("/gzip").headers
+				.getFirst("Accept-Encoding");
+		check(accept != null && accept.contains("gzip"),
+				"asked for gzip, sent " + accept);
+		check(Arrays.equals(read(loader_.cacheFile(url)), IMAGE),
+				"disk cache holds the inflated body");
+	}
+
+	/**
+	 * Error statuses and bodies cut short load nothing and leave no file,
+	 * finished or partial, in the disk cache; the next load tries again
+	 */
+	private static void failures() throws Exception {
+		for (String path : new String[] { "/truncated", "/truncated-gzip",
+				"/missing" }) {
+			String url = server_.url(path);
+			check(load(url, 100, 100) == null, path + " loads nothing");
+			check(!loader_.cacheFile(url).exists(), path + " not cached");
+			check(load(url, 100, 100) == null, path + " loads nothing again");
+			check(server_.getRequests(path).size() == 2, path
+					+ " retried");
+		}
+		for (String name : dir_.list())
+			check(!name.endsWith(".tmp"), "partial download left: " + name);
+		check(dir_.list().length == 3, dir_.list().length
+				+ " files cached, expected 3");
+	}
+
+	private static Bitmap load(String url, int width, int height)
+			throws InterruptedException {
+		Result r = new Result();
+		loader_.load(url, width, height, r);
+		return r.get();
+	}
+
+	private static byte[] read(File f) throws IOException {
+		InputStream in = new FileInputStream(f);
+		try {
+			byte[] b = new byte[(int) f.length()];
+			int n = 0;
+			while (n < b.length) {
+				int read = in.read(b, n, b.length - n);
+				if (read < 0)
+					break;
+				n += read;
+			}
+			return b;
+		} finally {
+			in.close();
+		}
+	}
+
+	private static byte[] bytes(String s) {
+		try {
+			return s.getBytes("US-ASCII");
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void check(boolean ok, String what) {
+		if (!ok) {
+			failures_++;
+			System.out.println("FAILED: " + what);
+		}
+	}
+}
@@ -0,0 +1,59 @@
+/**
+ * Android Campus Maps
+ *  http://code.google.com/p/vuphone/
+ *
+ * Copyright 2009 VUPhone Team
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package android.content;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Test stub, column values in the order they were put
+ */
+public final class ContentValues {
+	private final LinkedHashMap<String, Object> values_;
+
+	public ContentValues() {
+		values_ = new LinkedHashMap<String, Object>();
+	}
+
+	public ContentValues(int size) {
+		values_ = new LinkedHashMap<String, Object>(size * 2);
+	}
+
+	public void put(String key, String value) {
+		values_.put(key, value);
+	}
+
+	public void put(String key, Integer value) {
+		values_.put(key, value);
+	}
+
+	public void put(String key, Long value) {
+		values_.put(key, value);
+	}
+
+	public void put(String key, Double value) {
+		values_.put(key, value);
+	}
+
+	public int size() {
+		return values_.size();
+	}
+
+	public Set<Map.Entry<String, Object>> valueSet() {
+		return values_.entrySet();
+	}
+}
@@ -0,0 +1,141 @@
+/**
+ * Android Campus Maps
+ *  http://code.google.com/p/vuphone/
+ *
+ * Copyright 2009 VUPhone Team
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package android.content;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Test stub. Each JVM gets its own data directory under java.io.tmpdir,
+ * removed when the JVM exits. Shared preferences are kept in memory.
+ */
+public class Context {
+	public static final int MODE_PRIVATE = 0;
+
+	private static final File dataDir_ = createDataDir();
+	private static final Map<String, Preferences> prefs_ =
+			new HashMap<String, Preferences>();
+
+	public Context getApplicationContext() {
+		return this;
+	}
+
+	public File getDatabasePath(String name) {
+		File dir = new File(dataDir_, "databases");
+		dir.mkdirs();
+		return new File(dir, name);
+	}
+
+	public File getCacheDir() {
+		return dir("cache");
+	}
+
+	public File getFilesDir() {
+		return dir("files");
+	}
+
+	public SharedPreferences getSharedPreferences(String name, int mode) {
+		synchronized (prefs_) {
+			Preferences p = prefs_.get(name);
+			if (p == null) {
+				p = new Preferences();
+				prefs_.put(name, p);
+			}
+			return p;
+		}
+	}
+
+	private static File dir(String name) {
+		File dir = new File(dataDir_, name);
+		dir.mkdirs();
+		return dir;
+	}
+
+	private static File createDataDir() {
+		try {
+			final File dir = File.createTempFile("campusmaps", "");
+			if (!dir.delete() || !dir.mkdir())
+				throw new IOException("could not create " + dir);
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				@Override
+				public void run() {
+					delete(dir);
+				}
+			});
+			return dir;
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void delete(File f) {
+		File[] children = f.listFiles();
+		if (children != null)
+			for (File child : children)
+				delete(child);
+		f.delete();
+	}
+
+	/** Edits are applied when they are committed */
+	private static class Preferences implements SharedPreferences {
+		// Guarded by this
+		private final Map<String, Object> values_ =
+				new HashMap<String, Object>();
+
+		public synchronized String getString(String key, String defValue) {
+			Object v = values_.get(key);
+			return v instanceof String ? (String) v : defValue;
+		}
+
+		public synchronized long getLong(String key, long defValue) {
+			Object v = values_.get(key);
+			return v instanceof Long ? (Long) v : defValue;
+		}
+
+		public Editor edit() {
+			final Map<String, Object> changes = new HashMap<String, Object>();
+			return new Editor() {
+				public Editor putString(String key, String value) {
+					changes.put(key, value);
+					return this;
+				}
+
+				public Editor putLong(String key, long value) {
+					changes.put(key, value);
+					return this;
+				}
+
+				public Editor remove(String key) {
+					changes.put(key, null);
+					return this;
+				}
+
+				public boolean commit() {
+					synchronized (Preferences.this) {
+						for (Map.Entry<String, Object> e : changes.entrySet())
+							if (e.getValue() == null)
+								values_.remove(e.getKey());
+							else
+								values_.put(e.getKey(), e.getValue());
+					}
+					return true;
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,95 @@
+/**
+ * Android Campus Maps
+ *  http://code.google.com/p/vuphone/
+ *
+ * Copyright 2009 VUPhone Team
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package android.database;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Test stub, a cursor over rows held in memory. The SQLiteDatabase stub
+ * copies each result set into one, much as Android fills a cursor window.
+ */
+public class MatrixCursor implements Cursor {
+	private final String[] columns_;
+	private final ArrayList<Object[]> rows_ = new ArrayList<Object[]>();
+	private int position_ = -1;
+	private boolean closed_ = false;
+
+	public MatrixCursor(String[] columnNames) {
+		columns_ = columnNames;
+	}
+
+	public void addRow(Object[] columnValues) {
+		if (columnValues.length != columns_.length)
+			throw new IllegalArgumentException("expected " + columns_.length
+					+ " values, got " + columnValues.length);
+		rows_.add(columnValues.clone());
+	}
+
+	public int getCount() {
+		return rows_.size();
+	}
+
+	public boolean moveToFirst() {
+		position_ = 0;
+		return !rows_.isEmpty();
+	}
+
+	public boolean moveToNext() {
+		if (position_ < rows_.size())
+			position_++;
+		return position_ < rows_.size();
+	}
+
+	public int getColumnIndex(String columnName) {
+		return Arrays.asList(columns_).indexOf(columnName);
+	}
+
+	public boolean isNull(int columnIndex) {
+		return value(columnIndex) == null;
+	}
+
+	public int getInt(int columnIndex) {
+		Object v = value(columnIndex);
+		return v == null ? 0 : ((Number) v).intValue();
+	}
+
+	public long getLong(int columnIndex) {
+		Object v = value(columnIndex);
+		return v == null ? 0 : ((Number) v).longValue();
+	}
+
+	public String getString(int columnIndex) {
+		Object v = value(columnIndex);
+		return v == null ? null : v.toString();
+	}
+
+	public void close() {
+		closed_ = true;
+	}
+
+	public boolean isClosed() {
+		return closed_;
+	}
+
+	private Object value(int columnIndex) {
+		if (closed_)
+			throw new IllegalStateException("cursor is closed");
+		if (position_ < 0 || position_ >= rows_.size())
+			throw new IllegalStateException("no row at " + position_);
+		return rows_.get(position_)[columnIndex];
+	}
+}
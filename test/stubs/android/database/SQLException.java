@@ -0,0 +1,34 @@
+/**
+ * Android Campus Maps
+ *  http://code.google.com/p/vuphone/
+ *
+ * Copyright 2009 VUPhone Team
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package android.database;
+
+/**
+ * Test stub, thrown for any database error
+ */
+public class SQLException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	public SQLException() {
+	}
+
+	public SQLException(String error) {
+		super(error);
+	}
+
+	public SQLException(String error, Throwable cause) {
+		super(error, cause);
+	}
+}
@@ -0,0 +1,360 @@
+/**
+ * Android Campus Maps
+ *  http://code.google.com/p/vuphone/
+ *
+ * Copyright 2009 VUPhone Team
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package android.database.sqlite;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+/**
+ * Test stub that runs SQL on a real SQLite database through the sqlite-jdbc
+ * driver. Like Android's single connection it takes a lock for every call,
+ * and a transaction keeps that lock until it ends, so other threads wait
+ * for it instead of seeing its uncommitted rows.
+ * 
+ * Tests can count the queries run, slow them down so that concurrent
+ * callers overlap, and fetch the plan of the last query a thread ran.
+ */
+public class SQLiteDatabase {
+
+	public interface CursorFactory {
+	}
+
+	/** A query as it was run, with its arguments */
+	public static class Query {
+		public final String sql;
+		public final String[] args;
+		private final SQLiteDatabase db_;
+
+		Query(SQLiteDatabase db, String sql, String[] args) {
+			db_ = db;
+			this.sql = sql;
+			this.args = args;
+		}
+
+		/** @return the detail column of EXPLAIN QUERY PLAN, one per step */
+		public List<String> explain() {
+			Cursor c = db_.run("EXPLAIN QUERY PLAN " + sql, args, false);
+			List<String> steps = new ArrayList<String>();
+			int detail = c.getColumnIndex("detail");
+			for (boolean row = c.moveToFirst(); row; row = c.moveToNext())
+				steps.add(c.getString(detail));
+			c.close();
+			return steps;
+		}
+	}
+
+	/** Milliseconds every query waits before it runs */
+	public static volatile long queryDelayMillis = 0;
+
+	// SQL -> times run, for every database
+	private static final ConcurrentHashMap<String, AtomicInteger> queries_ = new ConcurrentHashMap<String, AtomicInteger>();
+	private static final ThreadLocal<Query> lastQuery_ = new ThreadLocal<Query>();
+
+	private final Connection connection_;
+	private final ReentrantLock lock_ = new ReentrantLock();
+	// Guarded by lock_
+	private int transactions_ = 0;
+	private boolean successful_ = false;
+	private boolean failed_ = false;
+
+	private SQLiteDatabase(Connection connection) {
+		connection_ = connection;
+	}
+
+	public static SQLiteDatabase openOrCreateDatabase(String path,
+			CursorFactory factory) {
+		try {
+			return new SQLiteDatabase(DriverManager.getConnection("jdbc:sqlite:"
+					+ path));
+		} catch (java.sql.SQLException e) {
+			throw new SQLiteException("could not open " + path, e);
+		}
+	}
+
+	/** @return the number of queries run whose SQL matches regex */
+	public static int getQueryCount(String regex) {
+		Pattern pattern = Pattern.compile(regex);
+		int count = 0;
+		for (Map.Entry<String, AtomicInteger> e : queries_.entrySet())
+			if (pattern.matcher(e.getKey()).matches())
+				count += e.getValue().get();
+		return count;
+	}
+
+	/** @return the last query this thread ran, or null */
+	public static Query getLastQuery() {
+		return lastQuery_.get();
+	}
+
+	public boolean isOpen() {
+		lock_.lock();
+		try {
+			return !connection_.isClosed();
+		} catch (java.sql.SQLException e) {
+			return false;
+		} finally {
+			lock_.unlock();
+		}
+	}
+
+	public void close() {
+		lock_.lock();
+		try {
+			connection_.close();
+		} catch (java.sql.SQLException e) {
+			throw new SQLiteException(e.getMessage(), e);
+		} finally {
+			lock_.unlock();
+		}
+	}
+
+	public int getVersion() {
+		Cursor c = run("PRAGMA user_version", null, false);
+		c.moveToFirst();
+		int version = c.getInt(0);
+		c.close();
+		return version;
+	}
+
+	public void setVersion(int version) {
+		execSQL("PRAGMA user_version = " + version);
+	}
+
+	public void beginTransaction() {
+		lock_.lock();
+		try {
+			if (transactions_ == 0) {
+				connection_.setAutoCommit(false);
+				failed_ = false;
+			}
+			transactions_++;
+			successful_ = false;
+		} catch (java.sql.SQLException e) {
+			lock_.unlock();
+			throw new SQLiteException(e.getMessage(), e);
+		}
+	}
+
+	public void setTransactionSuccessful() {
+		checkTransaction();
+		successful_ = true;
+	}
+
+	/**
+	 * Ends the innermost transaction. The outermost one commits only if it
+	 * and every transaction nested in it were marked successful.
+	 */
+	public void endTransaction() {
+		checkTransaction();
+		try {
+			if (!successful_)
+				failed_ = true;
+			successful_ = false;
+			if (--transactions_ == 0) {
+				if (failed_)
+					connection_.rollback();
+				else
+					connection_.commit();
+				connection_.setAutoCommit(true);
+			}
+		} catch (java.sql.SQLException e) {
+			throw new SQLiteException(e.getMessage(), e);
+		} finally {
+			lock_.unlock();
+		}
+	}
+
+	public boolean inTransaction() {
+		return lock_.isHeldByCurrentThread() && transactions_ > 0;
+	}
+
+	public void execSQL(String sql) {
+		lock_.lock();
+		try {
+			Statement s = connection_.createStatement();
+			try {
+				s.execute(sql);
+			} finally {
+				s.close();
+			}
+		} catch (java.sql.SQLException e) {
+			throw new SQLiteException(e.getMessage(), e);
+		} finally {
+			lock_.unlock();
+		}
+	}
+
+	public SQLiteStatement compileStatement(String sql) {
+		lock_.lock();
+		try {
+			return new SQLiteStatement(this, connection_.prepareStatement(sql),
+					sql);
+		} catch (java.sql.SQLException e) {
+			throw new SQLiteException(e.getMessage(), e);
+		} finally {
+			lock_.unlock();
+		}
+	}
+
+	public Cursor rawQuery(String sql, String[] selectionArgs) {
+		return run(sql, selectionArgs, true);
+	}
+
+	public Cursor query(String table, String[] columns, String selection,
+			String[] selectionArgs, String groupBy, String having,
+			String orderBy) {
+		return rawQuery(SQLiteQueryBuilder.buildQueryString(false, table,
+				columns, selection, groupBy, having, orderBy, null),
+				selectionArgs);
+	}
+
+	public int delete(String table, String whereClause, String[] whereArgs) {
+		return update("DELETE FROM " + table + where(whereClause), null,
+				whereArgs);
+	}
+
+	public int update(String table, ContentValues values, String whereClause,
+			String[] whereArgs) {
+		StringBuilder sql = new StringBuilder("UPDATE ").append(table).append(
+				" SET ");
+		boolean first = true;
+		for (Map.Entry<String, Object> e : values.valueSet()) {
+			sql.append(first ? "" : ", ").append(e.getKey()).append(" = ?");
+			first = false;
+		}
+		return update(sql + where(whereClause), values, whereArgs);
+	}
+
+	private static String where(String whereClause) {
+		return whereClause == null ? "" : " WHERE " + whereClause;
+	}
+
+	private int update(String sql, ContentValues values, String[] whereArgs) {
+		lock_.lock();
+		try {
+			PreparedStatement s = connection_.prepareStatement(sql);
+			try {
+				int i = 1;
+				if (values != null)
+					for (Map.Entry<String, Object> e : values.valueSet())
+						s.setObject(i++, e.getValue());
+				if (whereArgs != null)
+					for (String arg : whereArgs)
+						s.setString(i++, arg);
+				return s.executeUpdate();
+			} finally {
+				s.close();
+			}
+		} catch (java.sql.SQLException e) {
+			throw new SQLiteException(e.getMessage(), e);
+		} finally {
+			lock_.unlock();
+		}
+	}
+
+	// Binds every argument as a string, as Android does
+	private Cursor run(String sql, String[] args, boolean count) {
+		if (count) {
+			countQuery(sql, args);
+			delay();
+		}
+		lock_.lock();
+		try {
+			PreparedStatement s = connection_.prepareStatement(sql);
+			try {
+				if (args != null)
+					for (int i = 0; i < args.length; i++)
+						s.setString(i + 1, args[i]);
+				return copy(s.executeQuery());
+			} finally {
+				s.close();
+			}
+		} catch (java.sql.SQLException e) {
+			throw new SQLiteException(e.getMessage(), e);
+		} finally {
+			lock_.unlock();
+		}
+	}
+
+	void countQuery(String sql, String[] args) {
+		lastQuery_.set(new Query(this, sql, args));
+		AtomicInteger n = queries_.get(sql);
+		if (n == null) {
+			AtomicInteger added = new AtomicInteger();
+			n = queries_.putIfAbsent(sql, added);
+			if (n == null)
+				n = added;
+		}
+		n.incrementAndGet();
+	}
+
+	static void delay() {
+		if (queryDelayMillis <= 0)
+			return;
+		try {
+			Thread.sleep(queryDelayMillis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	void lock() {
+		lock_.lock();
+	}
+
+	void unlock() {
+		lock_.unlock();
+	}
+
+	private void checkTransaction() {
+		if (!inTransaction())
+			throw new IllegalStateException("no transaction on this thread");
+	}
+
+	private static Cursor copy(ResultSet rs) throws java.sql.SQLException {
+		try {
+			ResultSetMetaData meta = rs.getMetaData();
+			String[] columns = new String[meta.getColumnCount()];
+			for (int i = 0; i < columns.length; i++)
+				columns[i] = meta.getColumnLabel(i + 1);
+			MatrixCursor c = new MatrixCursor(columns);
+			Object[] row = new Object[columns.length];
+			while (rs.next()) {
+				for (int i = 0; i < row.length; i++)
+					row[i] = rs.getObject(i + 1);
+				c.addRow(row);
+			}
+			return c;
+		} finally {
+			rs.close();
+		}
+	}
+}
@@ -0,0 +1,81 @@
+/**
+ * Android Campus Maps
+ *  http://code.google.com/p/vuphone/
+ *
+ * Copyright 2009 VUPhone Team
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package android.database.sqlite;
+
+import android.content.Context;
+
+/**
+ * Test stub that creates or upgrades the database in one transaction on
+ * first open, as Android's helper does
+ */
+public abstract class SQLiteOpenHelper {
+	private final Context context_;
+	private final String name_;
+	private final SQLiteDatabase.CursorFactory factory_;
+	private final int version_;
+	private SQLiteDatabase db_ = null;
+
+	public SQLiteOpenHelper(Context context, String name,
+			SQLiteDatabase.CursorFactory factory, int version) {
+		context_ = context;
+		name_ = name;
+		factory_ = factory;
+		version_ = version;
+	}
+
+	public abstract void onCreate(SQLiteDatabase db);
+
+	public abstract void onUpgrade(SQLiteDatabase db, int oldVersion,
+			int newVersion);
+
+	public void onOpen(SQLiteDatabase db) {
+	}
+
+	public synchronized SQLiteDatabase getWritableDatabase() {
+		if (db_ != null && db_.isOpen())
+			return db_;
+
+		SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(context_
+				.getDatabasePath(name_).getPath(), factory_);
+		int version = db.getVersion();
+		if (version != version_) {
+			db.beginTransaction();
+			try {
+				if (version == 0)
+					onCreate(db);
+				else
+					onUpgrade(db, version, version_);
+				db.setVersion(version_);
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+		}
+		onOpen(db);
+		db_ = db;
+		return db;
+	}
+
+	public synchronized SQLiteDatabase getReadableDatabase() {
+		return getWritableDatabase();
+	}
+
+	public synchronized void close() {
+		if (db_ != null && db_.isOpen())
+			db_.close();
+		db_ = null;
+	}
+}
@@ -0,0 +1,54 @@
+/**
+ * Android Campus Maps
+ *  http://code.google.com/p/vuphone/
+ *
+ * Copyright 2009 VUPhone Team
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package android.database.sqlite;
+
+/**
+ * Test stub with the query string builder the storage classes use
+ */
+public class SQLiteQueryBuilder {
+
+	public static String buildQueryString(boolean distinct, String tables,
+			String[] columns, String where, String groupBy, String having,
+			String orderBy, String limit) {
+		StringBuilder query = new StringBuilder(120);
+		query.append("SELECT ");
+		if (distinct)
+			query.append("DISTINCT ");
+		if (columns != null && columns.length != 0) {
+			for (int i = 0; i < columns.length; i++) {
+				if (i > 0)
+					query.append(", ");
+				query.append(columns[i]);
+			}
+			query.append(' ');
+		} else {
+			query.append("* ");
+		}
+		query.append("FROM ").append(tables);
+		appendClause(query, " WHERE ", where);
+		appendClause(query, " GROUP BY ", groupBy);
+		appendClause(query, " HAVING ", having);
+		appendClause(query, " ORDER BY ", orderBy);
+		appendClause(query, " LIMIT ", limit);
+		return query.toString();
+	}
+
+	private static void appendClause(StringBuilder s, String name,
+			String clause) {
+		if (clause != null && clause.length() > 0)
+			s.append(name).append(clause);
+	}
+}
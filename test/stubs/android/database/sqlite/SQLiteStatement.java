@@ -0,0 +1,141 @@
+/**
+ * Android Campus Maps
+ *  http://code.google.com/p/vuphone/
+ *
+ * Copyright 2009 VUPhone Team
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package android.database.sqlite;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+/**
+ * Test stub, a JDBC prepared statement whose bindings are kept between runs
+ * as Android's are
+ */
+public class SQLiteStatement {
+	private final SQLiteDatabase db_;
+	private final PreparedStatement statement_;
+	private final String sql_;
+	private final Object[] bindings_;
+
+	SQLiteStatement(SQLiteDatabase db, PreparedStatement statement, String sql)
+			throws java.sql.SQLException {
+		db_ = db;
+		statement_ = statement;
+		sql_ = sql;
+		bindings_ = new Object[statement.getParameterMetaData()
+				.getParameterCount()];
+	}
+
+	public void bindNull(int index) {
+		bindings_[index - 1] = null;
+	}
+
+	public void bindLong(int index, long value) {
+		bindings_[index - 1] = value;
+	}
+
+	public void bindDouble(int index, double value) {
+		bindings_[index - 1] = value;
+	}
+
+	public void bindString(int index, String value) {
+		if (value == null)
+			throw new IllegalArgumentException("the bind value at index "
+					+ index + " is null");
+		bindings_[index - 1] = value;
+	}
+
+	public void clearBindings() {
+		for (int i = 0; i < bindings_.length; i++)
+			bindings_[i] = null;
+	}
+
+	public void execute() {
+		db_.lock();
+		try {
+			bind();
+			statement_.executeUpdate();
+		} catch (java.sql.SQLException e) {
+			throw new SQLiteException(e.getMessage(), e);
+		} finally {
+			db_.unlock();
+		}
+	}
+
+	/** @return the row ID of the inserted row, or -1 if none was */
+	public long executeInsert() {
+		db_.lock();
+		try {
+			bind();
+			if (statement_.executeUpdate() == 0)
+				return -1;
+			Statement s = statement_.getConnection().createStatement();
+			try {
+				ResultSet rs = s.executeQuery("SELECT last_insert_rowid()");
+				rs.next();
+				return rs.getLong(1);
+			} finally {
+				s.close();
+			}
+		} catch (java.sql.SQLException e) {
+			throw new SQLiteException(e.getMessage(), e);
+		} finally {
+			db_.unlock();
+		}
+	}
+
+	/** @throws SQLiteDoneException if the query returns no rows */
+	public long simpleQueryForLong() {
+		db_.countQuery(sql_, strings());
+		SQLiteDatabase.delay();
+		db_.lock();
+		try {
+			bind();
+			ResultSet rs = statement_.executeQuery();
+			try {
+				if (!rs.next())
+					throw new SQLiteDoneException("no rows for " + sql_);
+				return rs.getLong(1);
+			} finally {
+				rs.close();
+			}
+		} catch (java.sql.SQLException e) {
+			throw new SQLiteException(e.getMessage(), e);
+		} finally {
+			db_.unlock();
+		}
+	}
+
+	public void close() {
+		try {
+			statement_.close();
+		} catch (java.sql.SQLException e) {
+			// the connection is already closed
+		}
+	}
+
+	private void bind() throws java.sql.SQLException {
+		for (int i = 0; i < bindings_.length; i++)
+			statement_.setObject(i + 1, bindings_[i]);
+	}
+
+	// The bindings as query arguments, for SQLiteDatabase.Query.explain()
+	private String[] strings() {
+		String[] args = new String[bindings_.length];
+		for (int i = 0; i < args.length; i++)
+			args[i] = bindings_[i] == null ? null : bindings_[i].toString();
+		return args;
+	}
+}
@@ -0,0 +1,42 @@
+/**
+ * Android Campus Maps
+ *  http://code.google.com/p/vuphone/
+ *
+ * Copyright 2009 VUPhone Team
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package android.graphics;
+
+/**
+ * Test stub, an image's size without its pixels. Rows take 4 bytes a
+ * pixel, as in ARGB_8888.
+ */
+public class Bitmap {
+	private final int width_;
+	private final int height_;
+
+	Bitmap(int width, int height) {
+		width_ = width;
+		height_ = height;
+	}
+
+	public int getWidth() {
+		return width_;
+	}
+
+	public int getHeight() {
+		return height_;
+	}
+
+	public int getRowBytes() {
+		return width_ * 4;
+	}
+}
@@ -0,0 +1,82 @@
+/**
+ * Android Campus Maps
+ *  http://code.google.com/p/vuphone/
+ *
+ * Copyright 2009 VUPhone Team
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package android.graphics;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.LineNumberReader;
+
+/**
+ * Test stub that decodes images written as their width and height in text,
+ * "640 480", and returns null for anything else. Counts the decodes that
+ * were asked for pixels in getDecodeCount().
+ */
+public class BitmapFactory {
+	private static int decodes_ = 0;
+
+	public static class Options {
+		public boolean inJustDecodeBounds;
+		public int inSampleSize;
+		public int outWidth;
+		public int outHeight;
+	}
+
+	public static Bitmap decodeFile(String pathName, Options opts) {
+		try {
+			InputStream in = new FileInputStream(pathName);
+			try {
+				return decodeStream(in, null, opts);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	public static Bitmap decodeStream(InputStream is, Rect outPadding,
+			Options opts) {
+		int width, height;
+		try {
+			String[] size = new LineNumberReader(new InputStreamReader(is,
+					"US-ASCII")).readLine().trim().split(" ");
+			width = Integer.parseInt(size[0]);
+			height = Integer.parseInt(size[1]);
+		} catch (Exception e) {
+			return null;
+		}
+
+		int sample = opts != null && opts.inSampleSize > 1 ? opts.inSampleSize
+				: 1;
+		if (opts != null) {
+			opts.outWidth = width / sample;
+			opts.outHeight = height / sample;
+			if (opts.inJustDecodeBounds)
+				return null;
+		}
+		synchronized (BitmapFactory.class) {
+			decodes_++;
+		}
+		return new Bitmap(width / sample, height / sample);
+	}
+
+	/** @return decodes that returned a Bitmap so far */
+	public static synchronized int getDecodeCount() {
+		return decodes_;
+	}
+}
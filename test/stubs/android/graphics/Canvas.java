@@ -0,0 +1,42 @@
+/**
+ * Android Campus Maps
+ *  http://code.google.com/p/vuphone/
+ *
+ * Copyright 2009 VUPhone Team
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package android.graphics;
+
+/**
+ * Test stub that counts the paths drawn and draws nothing
+ */
+public class Canvas {
+	private static long paths_ = 0;
+
+	public int save() {
+		return 1;
+	}
+
+	public void restore() {
+	}
+
+	public void translate(float dx, float dy) {
+	}
+
+	public void drawPath(Path path, Paint paint) {
+		paths_++;
+	}
+
+	/** @return drawPath calls on every Canvas so far */
+	public static long getPathCount() {
+		return paths_;
+	}
+}
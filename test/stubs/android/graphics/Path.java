@@ -0,0 +1,40 @@
+/**
+ * Android Campus Maps
+ *  http://code.google.com/p/vuphone/
+ *
+ * Copyright 2009 VUPhone Team
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package android.graphics;
+
+/**
+ * Test stub. On a device the points live in native memory, so this only
+ * counts them, in getPointCount(), without allocating.
+ */
+public class Path {
+	private static long points_ = 0;
+
+	public void moveTo(float x, float y) {
+		points_++;
+	}
+
+	public void lineTo(float x, float y) {
+		points_++;
+	}
+
+	public void rewind() {
+	}
+
+	/** @return moveTo and lineTo calls on every Path so far */
+	public static long getPointCount() {
+		return points_;
+	}
+}
@@ -0,0 +1,33 @@
+/**
+ * Android Campus Maps
+ *  http://code.google.com/p/vuphone/
+ *
+ * Copyright 2009 VUPhone Team
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package android.os;
+
+/**
+ * Test stub that runs posted work straight away on the posting thread,
+ * standing in for the UI thread
+ */
+public class Handler {
+	public Handler() {
+	}
+
+	public Handler(Looper looper) {
+	}
+
+	public boolean post(Runnable r) {
+		r.run();
+		return true;
+	}
+}
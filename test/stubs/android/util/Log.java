@@ -0,0 +1,49 @@
+/**
+ * Android Campus Maps
+ *  http://code.google.com/p/vuphone/
+ *
+ * Copyright 2009 VUPhone Team
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package android.util;
+
+/**
+ * Test stub that prints warnings and errors, and drops the rest
+ */
+public final class Log {
+	private Log() {
+	}
+
+	public static int v(String tag, String msg) {
+		return 0;
+	}
+
+	public static int d(String tag, String msg) {
+		return 0;
+	}
+
+	public static int i(String tag, String msg) {
+		return 0;
+	}
+
+	public static int w(String tag, String msg) {
+		return println("W", tag, msg);
+	}
+
+	public static int e(String tag, String msg) {
+		return println("E", tag, msg);
+	}
+
+	private static int println(String level, String tag, String msg) {
+		System.out.println(level + "/" + tag + ": " + msg);
+		return msg.length();
+	}
+}
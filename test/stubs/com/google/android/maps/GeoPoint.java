@@ -0,0 +1,37 @@
+/**
+ * Android Campus Maps
+ *  http://code.google.com/p/vuphone/
+ *
+ * Copyright 2009 VUPhone Team
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.google.android.maps;
+
+/**
+ * Test stub, a point in microdegrees
+ */
+public class GeoPoint {
+	private final int latitudeE6_;
+	private final int longitudeE6_;
+
+	public GeoPoint(int latitudeE6, int longitudeE6) {
+		latitudeE6_ = latitudeE6;
+		longitudeE6_ = longitudeE6;
+	}
+
+	public int getLatitudeE6() {
+		return latitudeE6_;
+	}
+
+	public int getLongitudeE6() {
+		return longitudeE6_;
+	}
+}
@@ -0,0 +1,108 @@
+/**
+ * Android Campus Maps
+ *  http://code.google.com/p/vuphone/
+ *
+ * Copyright 2009 VUPhone Team
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package com.google.android.maps;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.graphics.Point;
+
+/**
+ * Test stub of a map with 256 pixel Mercator tiles, as Google Maps uses. The
+ * size is fixed, and the center and zoom level are set directly instead of
+ * through a MapController. Counts toPixels() calls in getProjectionCount().
+ */
+public class MapView {
+	private static long projections_ = 0;
+
+	private final int width_;
+	private final int height_;
+	private GeoPoint center_;
+	private int zoom_;
+	private final List<Overlay> overlays_ = new ArrayList<Overlay>();
+
+	private final Projection projection_ = new Projection() {
+		public Point toPixels(GeoPoint in, Point out) {
+			projections_++;
+			if (out == null)
+				out = new Point();
+			double world = 256 << zoom_;
+			out.x = (int) Math.round((x(in.getLongitudeE6()) - x(center_
+					.getLongitudeE6()))
+					* world + width_ / 2);
+			out.y = (int) Math.round((y(in.getLatitudeE6()) - y(center_
+					.getLatitudeE6()))
+					* world + height_ / 2);
+			return out;
+		}
+	};
+
+	public MapView(int width, int height, GeoPoint center, int zoom) {
+		width_ = width;
+		height_ = height;
+		center_ = center;
+		zoom_ = zoom;
+	}
+
+	public void setCenter(GeoPoint center) {
+		center_ = center;
+	}
+
+	public void setZoom(int zoom) {
+		zoom_ = zoom;
+	}
+
+	public Projection getProjection() {
+		return projection_;
+	}
+
+	public List<Overlay> getOverlays() {
+		return overlays_;
+	}
+
+	public GeoPoint getMapCenter() {
+		return center_;
+	}
+
+	public int getZoomLevel() {
+		return zoom_;
+	}
+
+	public int getLongitudeSpan() {
+		return (int) (360E6 * width_ / (256 << zoom_));
+	}
+
+	// Close enough for the small spans of a city map
+	public int getLatitudeSpan() {
+		double cos = Math.cos(Math.toRadians(center_.getLatitudeE6() / 1E6));
+		return (int) (getLongitudeSpan() * cos * height_ / width_);
+	}
+
+	/** @return toPixels calls on every MapView so far */
+	public static long getProjectionCount() {
+		return projections_;
+	}
+
+	// Fractions of the world's width from the left and top edges
+	private static double x(int lonE6) {
+		return lonE6 / 360E6 + 0.5;
+	}
+
+	private static double y(int latE6) {
+		double phi = Math.toRadians(latE6 / 1E6);
+		return 0.5 - Math.log(Math.tan(Math.PI / 4 + phi / 2)) / (2 * Math.PI);
+	}
+}
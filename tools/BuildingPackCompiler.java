@@ -0,0 +1,127 @@
+/**
+ * Android Campus Maps
+ *  http://code.google.com/p/vuphone/
+ *
+ * Copyright 2009 VUPhone Team
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ */
+
+package edu.vanderbilt.vuphone.android.campusmaps.tools;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import edu.vanderbilt.vuphone.android.campusmaps.storage.Building;
+import edu.vanderbilt.vuphone.android.campusmaps.storage.BuildingPack;
+
+/**
+ * Build step that compiles tools/buildings.xml into assets/buildings.bin,
+ * the only copy of the building list shipped in the APK, which BuildingPack
+ * reads on first launch. It is a desktop program and is kept out of src/ so
+ * it is not packaged into the APK. Run it whenever buildings.xml changes,
+ * against the app's compiled classes and the SDK's stub jars:
+ *
+ * <pre>
+ * CP=bin/classes:$SDK/platforms/android-7/android.jar:\
+ *     $SDK/add-ons/addon_google_apis_google_inc_7/libs/maps.jar
+ * javac -cp $CP -d tools/bin tools/BuildingPackCompiler.java
+ * java -cp tools/bin:$CP \
+ *     edu.vanderbilt.vuphone.android.campusmaps.tools.BuildingPackCompiler \
+ *     tools/buildings.xml assets/buildings.bin
+ * </pre>
+ *
+ * The file format is described, and its constants kept, in BuildingPack.
+ * The XML is read by BuildingXMLParser, so the pack holds exactly the
+ * buildings the app would parse from the same file. Errors are reported by
+ * the SAX parser rather than logged through the app.
+ */
+public class BuildingPackCompiler implements BuildingXMLParser.Listener {
+
+	private final ArrayList<Building> buildings_ = new ArrayList<Building>();
+
+	public static void main(String[] args) throws Exception {
+		if (args.length != 2) {
+			System.err.println("usage: BuildingPackCompiler buildings.xml "
+					+ "buildings.bin");
+			System.exit(1);
+		}
+
+		long start = System.nanoTime();
+		BuildingPackCompiler c = new BuildingPackCompiler();
+		FileInputStream in = new FileInputStream(args[0]);
+		try {
+			SAXParserFactory.newInstance().newSAXParser().parse(in,
+					new BuildingXMLParser(c));
+		} finally {
+			in.close();
+		}
+		long parsed = System.nanoTime();
+
+		File out = new File(args[1]);
+		c.write(out);
+		System.out.println("Compiled " + c.buildings_.size()
+				+ " buildings into " + out + " (" + out.length()
+				+ " bytes), XML parse took " + (parsed - start) / 1000000
+				+ "ms");
+	}
+
+	public void onBuilding(Building b) {
+		buildings_.add(b);
+	}
+
+	private void write(File file) throws IOException {
+		int count = buildings_.size();
+		int[] starts = new int[count * 3];
+		int[] lengths = new int[count * 3];
+		ByteArrayOutputStream table = new ByteArrayOutputStream(count * 256);
+		for (int i = 0; i < count; i++) {
+			Building b = buildings_.get(i);
+			String[] s = { b.getName(), b.getDescription(), b.getImageURL() };
+			for (int k = 0; k < 3; k++) {
+				if (s[k] == null) {
+					starts[i * 3 + k] = -1;
+					continue;
+				}
+				byte[] utf8 = s[k].getBytes("UTF-8");
+				starts[i * 3 + k] = table.size();
+				lengths[i * 3 + k] = utf8.length;
+				table.write(utf8);
+			}
+		}
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file)));
+		try {
+			out.writeInt(BuildingPack.MAGIC);
+			out.writeInt(BuildingPack.VERSION);
+			out.writeInt(count);
+			out.writeInt(table.size());
+			for (int i = 0; i < count; i++)
+				out.writeInt(buildings_.get(i).getLat_());
+			for (int i = 0; i < count; i++)
+				out.writeInt(buildings_.get(i).getLong_());
+			for (int i = 0; i < starts.length; i++)
+				out.writeInt(starts[i]);
+			for (int i = 0; i < lengths.length; i++)
+				out.writeInt(lengths[i]);
+			table.writeTo(out);
+		} finally {
+			out.close();
+		}
+	}
+}